@@ -10,6 +10,7 @@ import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.cookpad.prism.batch.catalog.DatabaseNameModifier;
 import com.cookpad.prism.objectstore.PrismObjectStoreFactory;
 import com.cookpad.prism.objectstore.PrismTableLocatorFactory;
+import com.cookpad.prism.objectstore.S3ObjectTransfer;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.WebApplicationType;
@@ -48,8 +49,14 @@ public class Main {
     }
 
     @Bean
-    public PrismObjectStoreFactory prismObjectStoreFactory(@Autowired PrismTableLocatorFactory tableLocatorFactory) {
-        return new PrismObjectStoreFactory(this.s3(), tableLocatorFactory);
+    public S3ObjectTransfer s3ObjectTransfer(@Autowired PrismBatchConf prismConf) {
+        var transferConf = prismConf.getS3Transfer();
+        return new S3ObjectTransfer(s3(), transferConf.getPartSize(), transferConf.getConcurrency());
+    }
+
+    @Bean
+    public PrismObjectStoreFactory prismObjectStoreFactory(@Autowired PrismTableLocatorFactory tableLocatorFactory, @Autowired S3ObjectTransfer s3ObjectTransfer) {
+        return new PrismObjectStoreFactory(this.s3(), tableLocatorFactory, s3ObjectTransfer);
     }
 
     @Bean
@@ -0,0 +1,61 @@
+package com.cookpad.prism.merge;
+
+import lombok.Getter;
+
+// Limits the total size and number of downloaded files on local disk.
+// A request larger than the limits is admitted when nothing else is held, so that it never blocks forever.
+public class DiskBudget {
+    @Getter
+    private final long maxBytes;
+    @Getter
+    private final int maxFiles;
+    private long usedBytes = 0;
+    private int usedFiles = 0;
+
+    public DiskBudget(long maxBytes, int maxFiles) {
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+        this.maxFiles = maxFiles > 0 ? maxFiles : Integer.MAX_VALUE;
+    }
+
+    public synchronized Reservation acquire(long bytes, int files) throws InterruptedException {
+        while (this.usedFiles > 0 && (this.usedBytes + bytes > this.maxBytes || this.usedFiles + files > this.maxFiles)) {
+            this.wait();
+        }
+        this.usedBytes += bytes;
+        this.usedFiles += files;
+        return new Reservation(bytes, files);
+    }
+
+    private synchronized void release(long bytes, int files) {
+        this.usedBytes -= bytes;
+        this.usedFiles -= files;
+        this.notifyAll();
+    }
+
+    public synchronized long getUsedBytes() {
+        return this.usedBytes;
+    }
+
+    public synchronized int getUsedFiles() {
+        return this.usedFiles;
+    }
+
+    public class Reservation implements AutoCloseable {
+        private final long bytes;
+        private final int files;
+        private boolean released = false;
+
+        private Reservation(long bytes, int files) {
+            this.bytes = bytes;
+            this.files = files;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!this.released) {
+                this.released = true;
+                release(this.bytes, this.files);
+            }
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package com.cookpad.prism.merge;
 
+import java.io.IOException;
 import java.time.Clock;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 
+import javax.sql.DataSource;
+
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 
@@ -12,8 +16,10 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.RawLocalFileSystem;
 import com.cookpad.prism.StepHandler;
+import com.cookpad.prism.merge.downloader.MergedObjectCache;
 import com.cookpad.prism.objectstore.PrismObjectStoreFactory;
 import com.cookpad.prism.objectstore.PrismTableLocatorFactory;
+import com.cookpad.prism.objectstore.S3ObjectTransfer;
 import com.cookpad.prism.record.RecordReaderFactory;
 import com.cookpad.prism.record.RecordWriterFactory;
 import org.mybatis.spring.annotation.MapperScan;
@@ -66,8 +72,14 @@ public class Main {
     }
 
     @Bean
-    public PrismObjectStoreFactory prismObjectStoreFactory(@Autowired PrismTableLocatorFactory tableLocatorFactory) {
-        return new PrismObjectStoreFactory(this.s3(), tableLocatorFactory);
+    public S3ObjectTransfer s3ObjectTransfer(@Autowired PrismMergeConf prismConf) {
+        var transferConf = prismConf.getS3Transfer();
+        return new S3ObjectTransfer(s3(), transferConf.getPartSize(), transferConf.getConcurrency());
+    }
+
+    @Bean
+    public PrismObjectStoreFactory prismObjectStoreFactory(@Autowired PrismTableLocatorFactory tableLocatorFactory, @Autowired S3ObjectTransfer s3ObjectTransfer) {
+        return new PrismObjectStoreFactory(this.s3(), tableLocatorFactory, s3ObjectTransfer);
     }
 
     @Bean
@@ -75,11 +87,25 @@ public class Main {
         return Clock.systemDefaultZone();
     }
 
+    @Bean
+    public MergedObjectCache mergedObjectCache(@Autowired PrismMergeConf prismConf) throws IOException {
+        return MergedObjectCache.createTemporary(prismConf.getMergedObjectCacheSize());
+    }
+
+    @Bean
+    public ParquetFileMerger parquetFileMerger(@Autowired RecordWriterFactory recordWriterFactory, @Autowired RecordReaderFactory recordReaderFactory, @Autowired Configuration hadoopConf, @Autowired PrismMergeConf prismConf) {
+        return new ParquetFileMerger(recordWriterFactory, recordReaderFactory, hadoopConf, prismConf.getMergeCopyThreshold());
+    }
+
     @Bean
     public ParallelParquetMerger parallelParquetMerger(@Autowired PrismMergeConf prismMergeConf, @Autowired ParquetFileMerger parquetFileMerger, @Autowired PrismMergeConf prismConf) {
         ExecutorService downloadExecutor = Executors.newFixedThreadPool(prismConf.getDownloaderThreads(), DaemonThreadFactory.instance);
         ExecutorService mergeExecutor = Executors.newFixedThreadPool(prismConf.getMergerThreads(), DaemonThreadFactory.instance);
-        return new ParallelParquetMerger(downloadExecutor, mergeExecutor, parquetFileMerger);
+        DiskBudget diskBudget = null;
+        if (prismConf.getDownloadBudgetBytes() > 0 || prismConf.getDownloadBudgetFiles() > 0) {
+            diskBudget = new DiskBudget(prismConf.getDownloadBudgetBytes(), prismConf.getDownloadBudgetFiles());
+        }
+        return new ParallelParquetMerger(downloadExecutor, mergeExecutor, parquetFileMerger, prismConf.getMergeFanIn(), diskBudget);
     }
 
     static class DaemonThreadFactory implements ThreadFactory {
@@ -96,7 +122,21 @@ public class Main {
     }
 
     @Bean
-    public StepHandler stepHandler(@Autowired MergeJobDispatcher mergeJobDispatcher) {
-        return mergeJobDispatcher;
+    public StepHandler stepHandler(@Autowired MergeJobQueue mergeJobQueue, @Autowired MergeJobHandler mergeJobHandler, @Autowired PrismMergeConf prismConf, @Autowired DataSource dataSource) {
+        int concurrentJobs = Math.max(prismConf.getConcurrentJobs(), 1);
+        ExecutorService jobExecutor = null;
+        if (concurrentJobs > 1) {
+            // Jobs share the download/merge executors and the disk budget of ParallelParquetMerger
+            jobExecutor = Executors.newFixedThreadPool(concurrentJobs, DaemonThreadFactory.instance);
+        }
+        ScheduledExecutorService heartbeatScheduler = null;
+        if (prismConf.getMergeJobHeartbeatInterval() > 0) {
+            heartbeatScheduler = Executors.newSingleThreadScheduledExecutor(DaemonThreadFactory.instance);
+        }
+        MergeJobWakeup wakeup = null;
+        if (prismConf.isMergeJobListen()) {
+            wakeup = new MergeJobWakeup(dataSource);
+        }
+        return new MergeJobDispatcher(mergeJobQueue, mergeJobHandler, jobExecutor, concurrentJobs, heartbeatScheduler, prismConf.getMergeJobHeartbeatInterval(), wakeup);
     }
 }
@@ -1,51 +1,178 @@
 package com.cookpad.prism.merge;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
 import com.cookpad.prism.StepHandler;
 import com.cookpad.prism.merge.MergeJobHandler.JobStatus;
+import com.cookpad.prism.merge.MergeJobLease.LeaseLostException;
 import com.cookpad.prism.dao.PrismMergeJob;
-import org.springframework.stereotype.Component;
 
 import io.sentry.Sentry;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
-@RequiredArgsConstructor
 @Slf4j
-@Component
 public class MergeJobDispatcher implements StepHandler {
     private final MergeJobQueue mergeJobQueue;
     private final MergeJobHandler mergeJobHandler;
+    // null to handle jobs on the caller thread
+    private final ExecutorService jobExecutor;
+    // number of jobs being handled at once
+    private final Semaphore jobSlots;
+    // partitions of jobs being handled in this process
+    private final Set<Long> runningPartitions = ConcurrentHashMap.newKeySet();
+    // the first error in job threads; rethrown from handleStep
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    // null not to renew leases of ongoing jobs
+    private final ScheduledExecutorService heartbeatScheduler;
+    private final long heartbeatInterval;
+    // null to poll jobs every 3 seconds
+    private final MergeJobWakeup wakeup;
 
-    @Override
-    public boolean handleStep() {
-        PrismMergeJob job = this.mergeJobQueue.dequeue();
-        if (job == null) {
-            try {
-                Thread.sleep(3000);
-            } catch (InterruptedException e) {
-                return true;
-            }
-            return true;
+    public MergeJobDispatcher(MergeJobQueue mergeJobQueue, MergeJobHandler mergeJobHandler) {
+        this(mergeJobQueue, mergeJobHandler, null, 1);
+    }
+
+    public MergeJobDispatcher(MergeJobQueue mergeJobQueue, MergeJobHandler mergeJobHandler, ExecutorService jobExecutor, int concurrentJobs) {
+        this(mergeJobQueue, mergeJobHandler, jobExecutor, concurrentJobs, null, 0);
+    }
+
+    public MergeJobDispatcher(MergeJobQueue mergeJobQueue, MergeJobHandler mergeJobHandler, ExecutorService jobExecutor, int concurrentJobs, ScheduledExecutorService heartbeatScheduler, long heartbeatInterval) {
+        this(mergeJobQueue, mergeJobHandler, jobExecutor, concurrentJobs, heartbeatScheduler, heartbeatInterval, null);
+    }
+
+    public MergeJobDispatcher(MergeJobQueue mergeJobQueue, MergeJobHandler mergeJobHandler, ExecutorService jobExecutor, int concurrentJobs, ScheduledExecutorService heartbeatScheduler, long heartbeatInterval, MergeJobWakeup wakeup) {
+        this.mergeJobQueue = mergeJobQueue;
+        this.mergeJobHandler = mergeJobHandler;
+        this.jobExecutor = jobExecutor;
+        this.jobSlots = new Semaphore(concurrentJobs);
+        this.heartbeatScheduler = heartbeatScheduler;
+        this.heartbeatInterval = heartbeatInterval;
+        this.wakeup = wakeup;
+    }
+
+    private MergeJobLease startLease(PrismMergeJob job) {
+        if (this.heartbeatScheduler == null) {
+            return MergeJobLease.NONE;
         }
-        try {
+        return MergeJobLease.start(job, this.mergeJobQueue, this.heartbeatScheduler, this.heartbeatInterval);
+    }
+
+    private void handleJob(PrismMergeJob job) throws Exception {
+        try (MergeJobLease lease = this.startLease(job)) {
             log.info("Handling job: {}", job);
             Sentry.getContext().addTag("merge_job", Long.toString(job.getId()));
-            JobStatus status = this.mergeJobHandler.handleJob(job);
+            JobStatus status = this.mergeJobHandler.handleJob(job, lease);
             if (status == JobStatus.CONTINUING) {
-                this.mergeJobQueue.retry(job);
+                this.mergeJobQueue.continueJob(job);
+                // The continued job is preferred by this worker and not announced to the others
+                if (this.wakeup != null) {
+                    this.wakeup.wakeup();
+                }
             } else {
                 this.mergeJobQueue.delete(job);
             }
             log.info("Handled job: {}", job);
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
+        } catch (LeaseLostException e) {
+            // The job has been retried by another worker, which takes over the rest
+            log.warn("Aborted job: {}", job, e);
         } finally {
             Sentry.getContext().removeTag("merge_job");
         }
+    }
+
+    @Override
+    public boolean handleStep() {
+        Exception failed = this.failure.get();
+        if (failed != null) {
+            throw new RuntimeException(failed);
+        }
+        try {
+            this.jobSlots.acquire();
+        } catch (InterruptedException e) {
+            return true;
+        }
+        boolean submitted = false;
+        try {
+            long token = 0;
+            if (this.wakeup != null) {
+                this.wakeup.start();
+                token = this.wakeup.token();
+            }
+            // Claim as many jobs as free slots; they are handed out in the following steps
+            PrismMergeJob job = this.mergeJobQueue.dequeue(this.jobSlots.availablePermits() + 1);
+            if (job == null) {
+                try {
+                    if (this.wakeup == null) {
+                        Thread.sleep(3000);
+                    } else {
+                        this.wakeup.await(token, this.mergeJobQueue.getIdleDuration().toMillis());
+                    }
+                } catch (InterruptedException e) {
+                    return true;
+                }
+                return true;
+            }
+            if (!this.runningPartitions.add(job.getPartitionId())) {
+                // Another job of the same partition is running in this process; try it later
+                log.info("Partition is being merged, retry job later: {}", job);
+                this.mergeJobQueue.retry(job);
+                return true;
+            }
+            Runnable task = () -> {
+                try {
+                    this.handleJob(job);
+                } catch (Exception ex) {
+                    log.error("Failed to handle job: {}", job, ex);
+                    this.failure.compareAndSet(null, ex);
+                } finally {
+                    this.runningPartitions.remove(job.getPartitionId());
+                    this.jobSlots.release();
+                }
+            };
+            submitted = true;
+            if (this.jobExecutor == null) {
+                task.run();
+            } else {
+                this.jobExecutor.execute(task);
+            }
+        } finally {
+            if (!submitted) {
+                this.jobSlots.release();
+            }
+        }
+        failed = this.failure.get();
+        if (failed != null) {
+            throw new RuntimeException(failed);
+        }
         return true;
     }
 
+    @Override
     public void shutdown() {
+        this.mergeJobQueue.releaseClaimedJobs();
+        if (this.jobExecutor != null) {
+            // Let running jobs finish
+            this.jobExecutor.shutdown();
+            try {
+                while (!this.jobExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    log.info("waiting for jobExecutor shutdown...");
+                }
+            } catch (InterruptedException ex) {
+                log.error("jobExecutor shutdown interrupted: {}", ex.getMessage());
+            }
+        }
+        if (this.heartbeatScheduler != null) {
+            this.heartbeatScheduler.shutdownNow();
+        }
+        if (this.wakeup != null) {
+            this.wakeup.shutdown();
+        }
         mergeJobHandler.shutdown();
     }
 }
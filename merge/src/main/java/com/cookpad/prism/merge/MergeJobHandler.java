@@ -3,7 +3,8 @@ package com.cookpad.prism.merge;
 import com.cookpad.prism.dao.PrismMergeJob;
 
 public interface MergeJobHandler {
-    public JobStatus handleJob(PrismMergeJob job) throws Exception;
+    // Implementations should check the lease before making their result visible
+    public JobStatus handleJob(PrismMergeJob job, MergeJobLease lease) throws Exception;
 
     public static enum JobStatus {
         FINISHED,
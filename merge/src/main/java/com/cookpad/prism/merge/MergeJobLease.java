@@ -0,0 +1,73 @@
+package com.cookpad.prism.merge;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.cookpad.prism.dao.PrismMergeJob;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+// Keeps the ongoing job alive by renewing its heartbeat_time periodically.
+// Once the job is taken over (i.e. retried as a timed-out job), the lease is lost
+// and the worker should abort without writing its result.
+@Slf4j
+public class MergeJobLease implements AutoCloseable {
+    // A lease which is never renewed nor lost
+    public static final MergeJobLease NONE = new MergeJobLease(null, null);
+
+    @Getter
+    private final PrismMergeJob job;
+    private final MergeJobQueue mergeJobQueue;
+    private volatile boolean lost = false;
+    private ScheduledFuture<?> renewal;
+
+    private MergeJobLease(PrismMergeJob job, MergeJobQueue mergeJobQueue) {
+        this.job = job;
+        this.mergeJobQueue = mergeJobQueue;
+    }
+
+    public static MergeJobLease start(PrismMergeJob job, MergeJobQueue mergeJobQueue, ScheduledExecutorService scheduler, long intervalSeconds) {
+        MergeJobLease lease = new MergeJobLease(job, mergeJobQueue);
+        lease.renewal = scheduler.scheduleWithFixedDelay(lease::renew, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        return lease;
+    }
+
+    void renew() {
+        try {
+            if (!this.mergeJobQueue.heartbeat(this.job)) {
+                log.warn("Lost lease of job: {}", this.job);
+                this.lost = true;
+                this.renewal.cancel(false);
+            }
+        } catch (RuntimeException e) {
+            // Keep renewing; the lease is lost only when the job is taken over
+            log.warn("Failed to renew lease of job: {}", this.job, e);
+        }
+    }
+
+    public boolean isLost() {
+        return this.lost;
+    }
+
+    public void check() throws LeaseLostException {
+        if (this.lost) {
+            throw new LeaseLostException(this.job);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (this.renewal != null) {
+            this.renewal.cancel(false);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    public static class LeaseLostException extends Exception {
+        public LeaseLostException(PrismMergeJob job) {
+            super(String.format("lease of merge job %d was lost", job.getId()));
+        }
+    }
+}
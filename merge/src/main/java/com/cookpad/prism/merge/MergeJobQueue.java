@@ -1,9 +1,14 @@
 package com.cookpad.prism.merge;
 
 import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
+import java.util.UUID;
 
 import com.cookpad.prism.dao.PrismMergeJob;
 import com.cookpad.prism.dao.PrismMergeJobMapper;
@@ -17,6 +22,11 @@ public class MergeJobQueue {
     private final PrismMergeConf prismConf;
     private final PrismMergeJobMapper mergeJobMapper;
     private final Clock clock;
+    private volatile Instant nextTimedoutCheck = Instant.MIN;
+    // jobs claimed but not yet handed out
+    private final Deque<PrismMergeJob> claimedJobs = new ArrayDeque<>();
+    // identifies this process for partition affinity; local caches do not survive restarts either
+    private final String workerId = UUID.randomUUID().toString();
 
     private LocalDateTime now() {
         return LocalDateTime.ofInstant(this.clock.instant(), ZoneOffset.UTC);
@@ -27,15 +37,76 @@ public class MergeJobQueue {
     }
 
     public PrismMergeJob dequeue() {
-        this.retryTimedoutJobs();
-        return this.mergeJobMapper.dequeue(this.now());
+        return this.dequeue(1);
+    }
+
+    // Claims up to maxJobs jobs at once and hands them out one by one.
+    // maxJobs should not exceed the number of jobs the caller can start right away
+    // because claimed jobs are not renewed until they are handed out.
+    public synchronized PrismMergeJob dequeue(int maxJobs) {
+        if (this.claimedJobs.isEmpty()) {
+            Instant now = this.clock.instant();
+            if (!now.isBefore(this.nextTimedoutCheck)) {
+                this.retryTimedoutJobs();
+                this.nextTimedoutCheck = now.plusSeconds(this.prismConf.getMergeJobPollInterval());
+            }
+            this.claimedJobs.addAll(this.mergeJobMapper.dequeue(this.now(), Math.max(maxJobs, 1), this.workerId));
+        }
+        return this.claimedJobs.poll();
+    }
+
+    // Puts claimed jobs back to the queue
+    public synchronized void releaseClaimedJobs() {
+        PrismMergeJob job;
+        while ((job = this.claimedJobs.poll()) != null) {
+            this.retry(job);
+        }
+    }
+
+    // How long an idle worker can wait for a notification before polling again
+    public Duration getIdleDuration() {
+        Duration idle = Duration.ofSeconds(this.prismConf.getMergeJobPollInterval());
+        Duration untilCheck = Duration.between(this.clock.instant(), this.nextTimedoutCheck);
+        if (untilCheck.compareTo(idle) < 0) {
+            idle = untilCheck;
+        }
+        // Pending jobs which are already due are waiting for ongoing jobs of the same partitions,
+        // which notify when they finish
+        LocalDateTime nextScheduleTime = this.mergeJobMapper.findNextScheduleTime();
+        if (nextScheduleTime != null && nextScheduleTime.isAfter(this.now())) {
+            Duration untilSchedule = Duration.between(this.now(), nextScheduleTime);
+            if (untilSchedule.compareTo(idle) < 0) {
+                idle = untilSchedule;
+            }
+        }
+        return idle.isNegative() ? Duration.ZERO : idle;
+    }
+
+    // Returns false if the job is no longer ongoing, e.g. it was retried as a timed-out job
+    public boolean heartbeat(PrismMergeJob job) {
+        return this.mergeJobMapper.heartbeat(job.getId(), this.now()) > 0;
     }
 
     public void retry(PrismMergeJob job) {
+        this.retry(job, null, null);
+    }
+
+    // Retries the rest of the job preferably on this worker, which has the merged object on local disk.
+    // Other workers take it over after merge-job-affinity-delay from now; the job is usually due already.
+    public void continueJob(PrismMergeJob job) {
+        long affinityDelay = this.prismConf.getMergeJobAffinityDelay();
+        if (affinityDelay > 0) {
+            this.retry(job, this.workerId, this.now().plusSeconds(affinityDelay));
+        } else {
+            this.retry(job, null, null);
+        }
+    }
+
+    private void retry(PrismMergeJob job, String preferredWorker, LocalDateTime preferredUntil) {
         // MEMO: transactions are not needed here
         //       because miss-deleted records will be deleted in next check
-        this.mergeJobMapper.retry(job.getPartitionId(), job.getScheduleTime());
-        this.mergeJobMapper.delete(job.getId());
+        this.mergeJobMapper.retry(job.getPartitionId(), job.getScheduleTime(), preferredWorker, preferredUntil, this.now());
+        this.mergeJobMapper.delete(job.getId(), this.now());
     }
 
     public void retryTimedoutJobs() {
@@ -46,6 +117,6 @@ public class MergeJobQueue {
     }
 
     public void delete(PrismMergeJob job) {
-        this.mergeJobMapper.delete(job.getId());
+        this.mergeJobMapper.delete(job.getId(), this.now());
     }
 }
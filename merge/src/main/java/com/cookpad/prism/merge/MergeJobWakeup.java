@@ -0,0 +1,106 @@
+package com.cookpad.prism.merge;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Wakes up idle dispatchers when merge jobs are enqueued, retried or deleted.
+// PrismMergeJobMapper issues NOTIFY on the channel and a dedicated connection LISTENs to it,
+// so idle workers do not query the database until a job may be available.
+@Slf4j
+public class MergeJobWakeup {
+    static final String CHANNEL = "prism_merge_jobs";
+
+    private final DataSource dataSource;
+    // incremented on every notification
+    private long generation = 0;
+    private Thread listener;
+    private volatile boolean closed = false;
+
+    public MergeJobWakeup(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public synchronized void start() {
+        if (this.listener != null || this.dataSource == null) {
+            return;
+        }
+        this.listener = new Thread(this::listen, "merge-job-listener");
+        this.listener.setDaemon(true);
+        this.listener.start();
+    }
+
+    // Take a token before looking for jobs; await returns immediately if notified after that
+    public synchronized long token() {
+        return this.generation;
+    }
+
+    // Returns true if notified, false if timed out
+    public synchronized boolean await(long token, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (this.generation == token) {
+            long rest = deadline - System.currentTimeMillis();
+            if (rest <= 0) {
+                return false;
+            }
+            this.wait(rest);
+        }
+        return true;
+    }
+
+    synchronized void wakeup() {
+        this.generation++;
+        this.notifyAll();
+    }
+
+    private void listen() {
+        while (!this.closed) {
+            try (Connection conn = this.dataSource.getConnection()) {
+                PGConnection pgConn = conn.unwrap(PGConnection.class);
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("listen " + CHANNEL);
+                }
+                if (!conn.getAutoCommit()) {
+                    conn.commit();
+                }
+                log.info("Listening to {}", CHANNEL);
+                // Notifications may have been missed while (re)connecting
+                this.wakeup();
+                while (!this.closed) {
+                    PGNotification[] notifications = pgConn.getNotifications(10000);
+                    if (notifications != null && notifications.length > 0) {
+                        this.wakeup();
+                    }
+                }
+            } catch (SQLException e) {
+                if (this.closed) {
+                    break;
+                }
+                log.warn("Lost connection for merge job notifications", e);
+                // Let waiters poll until reconnected
+                this.wakeup();
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException ex) {
+                    break;
+                }
+            }
+        }
+    }
+
+    public void shutdown() {
+        this.closed = true;
+        synchronized (this) {
+            if (this.listener != null) {
+                this.listener.interrupt();
+            }
+        }
+    }
+}
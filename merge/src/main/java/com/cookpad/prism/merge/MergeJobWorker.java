@@ -5,20 +5,25 @@ import java.io.IOException;
 import java.time.Clock;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
-import com.cookpad.prism.SchemaBuilder;
 import com.cookpad.prism.TempFile;
 import com.cookpad.prism.SchemaBuilder.BadColumnsError;
+import com.cookpad.prism.merge.MergeJobLease.LeaseLostException;
+import com.cookpad.prism.merge.TableMetadataCache.TableMetadata;
+import com.cookpad.prism.merge.downloader.CachedMergedObjectStore;
 import com.cookpad.prism.merge.downloader.DownloadedObjectSupplier;
+import com.cookpad.prism.merge.downloader.MergedObjectCache;
 import com.cookpad.prism.merge.downloader.MergedObjectSupplierFactory;
 import com.cookpad.prism.merge.downloader.SmallObjectSupplierFactory;
 import com.cookpad.prism.objectstore.MergedObjectStore;
 import com.cookpad.prism.objectstore.PrismObjectStore;
 import com.cookpad.prism.objectstore.PrismObjectStoreFactory;
+import com.cookpad.prism.objectstore.SmallObjectStore;
 import com.cookpad.prism.record.Schema;
-import com.cookpad.prism.dao.OneToMany;
 import com.cookpad.prism.dao.PrismMergeJob;
 import com.cookpad.prism.dao.PrismMergeRange;
 import com.cookpad.prism.dao.PrismMergeRangeMapper;
@@ -27,12 +32,11 @@ import com.cookpad.prism.dao.PrismPartitionMapper;
 import com.cookpad.prism.dao.PrismSmallObject;
 import com.cookpad.prism.dao.PrismSmallObjectMapper;
 import com.cookpad.prism.dao.PrismTable;
-import com.cookpad.prism.dao.PrismTableMapper;
-import com.cookpad.prism.dao.StreamColumn;
 import org.springframework.stereotype.Component;
 
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 
 // input: processing merge job
 // output: merged objects and uploaded objects in S3 (side effect)
@@ -44,21 +48,23 @@ public class MergeJobWorker implements MergeJobHandler {
     private final PrismMergeRangeMapper mergeRangeMapper;
     private final PrismSmallObjectMapper smallObjectMapper;
     private final PrismPartitionMapper partitionMapper;
-    private final PrismTableMapper tableMapper;
+    private final TableMetadataCache tableMetadataCache;
     private final PrismObjectStoreFactory objectStoreFactory;
+    private final MergedObjectCache mergedObjectCache;
     private final Clock clock;
 
     @Override
-    public JobStatus handleJob(PrismMergeJob job) throws IOException, BadColumnsError {
+    public JobStatus handleJob(PrismMergeJob job, MergeJobLease lease) throws IOException, BadColumnsError, LeaseLostException {
         JobStatus status = JobStatus.FINISHED;
 
         final int BATCH_SIZE = this.prismConf.getMergeBatchSize();
         final long MAX_SIZE = this.prismConf.getMergedObjectSize();
+        final long JOB_SIZE = this.prismConf.getMergeJobSize() > 0 ? this.prismConf.getMergeJobSize() : Long.MAX_VALUE;
 
         final PrismPartition partition = this.partitionMapper.find(job.getPartitionId());
-        final OneToMany<PrismTable, StreamColumn> tableWithColumns = this.tableMapper.findWithColumns(partition.getTableId());
-        final PrismTable table = tableWithColumns.getOne();
-        final Schema schema = new SchemaBuilder().build(tableWithColumns.getOne(), tableWithColumns.getMany());
+        final TableMetadata tableMetadata = this.tableMetadataCache.get(partition.getTableId());
+        final PrismTable table = tableMetadata.getTable();
+        final Schema schema = tableMetadata.getSchema();
 
         final PrismObjectStore prismObjectStore = this.objectStoreFactory.create(table);
 
@@ -70,29 +76,32 @@ public class MergeJobWorker implements MergeJobHandler {
             openMergeRange = OpenMergeRange.existing(mergeRange);
         }
 
-        final List<PrismSmallObject> newSmallObjects = this.smallObjectMapper.findNewObjects(partition.getId(), openMergeRange.getMaxMergedId(), BATCH_SIZE);
+        final List<PrismSmallObject> newSmallObjects = this.smallObjectMapper.findNewObjects(partition.getId(), openMergeRange.getMaxMergedId(), JOB_SIZE, BATCH_SIZE);
         if (newSmallObjects.size() == BATCH_SIZE) {
             // the job is potentially incompleted
             // if the number of returning objects reaches the limit
             status = JobStatus.CONTINUING;
         }
+        if (newSmallObjects.stream().mapToLong(PrismSmallObject::getContentLength).sum() >= JOB_SIZE) {
+            // or the total size reaches the budget
+            status = JobStatus.CONTINUING;
+        }
         if (newSmallObjects.size() == 0) {
             return JobStatus.FINISHED;
         }
 
         MergePlanner planner = new MergePlanner(MAX_SIZE, partition);
-        MergePlan plan = planner.makePlan(openMergeRange, newSmallObjects);
-        if (plan.isFull()) {
-            status = JobStatus.CONTINUING;
-        }
+        List<MergePlan> plans = planner.makePlans(openMergeRange, newSmallObjects);
         MergePlanExecutor planExecutor = MergePlanExecutor.of(
             mergeRangeMapper,
             parallelParquetMerger,
             prismObjectStore,
+            new CachedMergedObjectStore(prismObjectStore, this.mergedObjectCache, table.getId()),
             clock
         );
-        planExecutor.execute(schema, plan);
-        this.partitionMapper.updateDesiredManifestVersion(job.getPartitionId(), plan.getUpperBound());
+        planExecutor.execute(schema, plans, lease);
+        lease.check();
+        this.partitionMapper.updateDesiredManifestVersion(job.getPartitionId(), plans.get(plans.size() - 1).getUpperBound());
 
         return status;
     }
@@ -167,10 +176,33 @@ public class MergeJobWorker implements MergeJobHandler {
             Optional<MergePlan> maybePlan = this.tryToMakePlan(openMergeRange, newSmallObjects);
             MergePlan plan = maybePlan.orElseGet(() -> {
                 OpenMergeRange emptyOpenMergeRange = OpenMergeRange.empty(openMergeRange.getMaxMergedId());
-                return this.tryToMakePlan(emptyOpenMergeRange, newSmallObjects).get();
+                return this.tryToMakePlan(emptyOpenMergeRange, newSmallObjects).orElseGet(() -> {
+                    // A single object larger than the limit gets a range of its own
+                    return new MergePlan(
+                        partition,
+                        emptyOpenMergeRange.getLowerBound(),
+                        newSmallObjects.size() > 1,
+                        newSmallObjects.subList(0, 1),
+                        Optional.empty()
+                    );
+                });
             });
             return plan;
         }
+
+        // Splits all new objects into consecutive ranges; all but the last one are full
+        public List<MergePlan> makePlans(OpenMergeRange openMergeRange, List<PrismSmallObject> newSmallObjects) {
+            List<MergePlan> plans = new ArrayList<>();
+            List<PrismSmallObject> rest = newSmallObjects;
+            OpenMergeRange range = openMergeRange;
+            while (!rest.isEmpty()) {
+                MergePlan plan = this.makePlan(range, rest);
+                plans.add(plan);
+                rest = rest.subList(plan.getNewSmallObjects().size(), rest.size());
+                range = OpenMergeRange.empty(plan.getUpperBound());
+            }
+            return plans;
+        }
     }
 
     @RequiredArgsConstructor
@@ -188,6 +220,7 @@ public class MergeJobWorker implements MergeJobHandler {
     }
 
     @RequiredArgsConstructor
+    @Slf4j
     public static class MergePlanExecutor {
         private final PrismMergeRangeMapper mergeRangeMapper;
         private final ParallelParquetMerger parallelParquetMerger;
@@ -201,31 +234,80 @@ public class MergeJobWorker implements MergeJobHandler {
         }
 
         public static MergePlanExecutor of(PrismMergeRangeMapper mergeRangeMapper, ParallelParquetMerger parallelParquetMerger, PrismObjectStore prismObjectStore, Clock clock) {
-            SmallObjectSupplierFactory smallObjectSupplierFactory = new SmallObjectSupplierFactory(prismObjectStore);
-            MergedObjectSupplierFactory mergedObjectSupplierFactory = new MergedObjectSupplierFactory(prismObjectStore);
-            return new MergePlanExecutor(mergeRangeMapper, parallelParquetMerger, prismObjectStore, smallObjectSupplierFactory, mergedObjectSupplierFactory, clock);
+            return of(mergeRangeMapper, parallelParquetMerger, prismObjectStore, prismObjectStore, clock);
+        }
+
+        public static MergePlanExecutor of(PrismMergeRangeMapper mergeRangeMapper, ParallelParquetMerger parallelParquetMerger, SmallObjectStore smallObjectStore, MergedObjectStore mergedObjectStore, Clock clock) {
+            SmallObjectSupplierFactory smallObjectSupplierFactory = new SmallObjectSupplierFactory(smallObjectStore);
+            MergedObjectSupplierFactory mergedObjectSupplierFactory = new MergedObjectSupplierFactory(mergedObjectStore);
+            return new MergePlanExecutor(mergeRangeMapper, parallelParquetMerger, mergedObjectStore, smallObjectSupplierFactory, mergedObjectSupplierFactory, clock);
         }
 
         public void execute(Schema schema, MergePlan plan) throws IOException {
-            List<DownloadedObjectSupplier> smallObjectSuppliers = this.smallObjectSupplierFactory.createMultipleSuppliers(plan.getNewSmallObjects(), plan.getPartition());
-            ParallelParquetMerger.Node rootOfSmallObjects = this.parallelParquetMerger.buildTree(smallObjectSuppliers);
-            ParallelParquetMerger.Node root = plan.getOldMergeRange().map((mergeRange) -> {
-                DownloadedObjectSupplier supplier = this.mergedObjectSupplierFactory.createSupplier(mergeRange, plan.getPartition());
-                return this.parallelParquetMerger.toMergeNode(rootOfSmallObjects, this.parallelParquetMerger.toNode(supplier));
-            }).orElse(rootOfSmallObjects);
-
-            try(final TempFile output = this.parallelParquetMerger.mergeTree(schema, root)) {
-                File outputFile = output.getPath().toFile();
-                long contentLength = outputFile.length();
-                mergedObjectStore.putMergedObjectFile(
-                    plan.getPartition().getPartitionDate(),
-                    plan.getLowerBound(),
-                    plan.getUpperBound(),
-                    outputFile
-                );
-
-                this.mergeRangeMapper.upsertRange(plan.getPartition().getId(), plan.getLowerBound(), plan.getUpperBound(), contentLength, now());
+            try {
+                this.execute(schema, plan, MergeJobLease.NONE);
+            } catch (LeaseLostException e) {
+                // never happens without lease
+                throw new RuntimeException(e);
             }
         }
+
+        public void execute(Schema schema, MergePlan plan, MergeJobLease lease) throws IOException, LeaseLostException {
+            this.execute(schema, List.of(plan), lease);
+        }
+
+        // Merges all plans in parallel, then stores the results in the order of plans
+        // so that the last range remains the open one even if it fails in the middle.
+        public void execute(Schema schema, List<MergePlan> plans, MergeJobLease lease) throws IOException, LeaseLostException {
+            lease.check();
+            List<CompletableFuture<? extends TempFile>> outputs = new ArrayList<>();
+            for (MergePlan plan : plans) {
+                outputs.add(this.parallelParquetMerger.mergeTreeAsync(schema, this.buildTree(plan)));
+            }
+            int stored = 0;
+            try {
+                for (; stored < plans.size(); stored++) {
+                    try (final TempFile output = outputs.get(stored).join()) {
+                        this.store(plans.get(stored), output, lease);
+                    }
+                }
+            } finally {
+                // Discard the rest of outputs on failure
+                for (int i = stored + 1; i < outputs.size(); i++) {
+                    outputs.get(i).thenAccept((output) -> {
+                        try {
+                            output.close();
+                        } catch (IOException e) {
+                            log.warn("Failed to delete merged file: {}", output.getPath(), e);
+                        }
+                    });
+                }
+            }
+        }
+
+        private ParallelParquetMerger.Node buildTree(MergePlan plan) throws IOException {
+            List<DownloadedObjectSupplier> suppliers = new ArrayList<>(this.smallObjectSupplierFactory.createMultipleSuppliers(plan.getNewSmallObjects(), plan.getPartition()));
+            // Merge the old merged object together with small objects in the same k-way merge
+            plan.getOldMergeRange().ifPresent((mergeRange) -> {
+                suppliers.add(this.mergedObjectSupplierFactory.createSupplier(mergeRange, plan.getPartition()));
+            });
+            return this.parallelParquetMerger.buildTree(suppliers);
+        }
+
+        private void store(MergePlan plan, TempFile output, MergeJobLease lease) throws IOException, LeaseLostException {
+            // Another worker is merging the same objects; don't overwrite its result
+            lease.check();
+            File outputFile = output.getPath().toFile();
+            long contentLength = outputFile.length();
+            mergedObjectStore.putMergedObjectFile(
+                plan.getPartition().getPartitionDate(),
+                plan.getLowerBound(),
+                plan.getUpperBound(),
+                outputFile
+            );
+
+            lease.check();
+            this.mergeRangeMapper.upsertRange(plan.getPartition().getId(), plan.getLowerBound(), plan.getUpperBound(), contentLength, now());
+        }
     }
 }
@@ -0,0 +1,51 @@
+package com.cookpad.prism.merge;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import com.cookpad.prism.record.Record;
+import com.cookpad.prism.record.RecordTimestampComparator;
+
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+
+// Merges any number of sorted inputs in a single pass with a heap.
+// Records with the same timestamp are written in the order of readers.
+@RequiredArgsConstructor
+public class MultiwayParquetMerger {
+    private final List<ParquetReader<Record>> readers;
+    private final ParquetWriter<Record> writer;
+
+    public void merge() throws IOException {
+        RecordTimestampComparator comparator = new RecordTimestampComparator();
+        PriorityQueue<Head> heads = new PriorityQueue<>(
+            Math.max(this.readers.size(), 1),
+            Comparator.<Head, Record>comparing(Head::getRecord, comparator).thenComparingInt(Head::getReaderIndex)
+        );
+        for (int i = 0; i < this.readers.size(); i++) {
+            Record record = this.readers.get(i).read();
+            if (record != null) {
+                heads.add(new Head(i, record));
+            }
+        }
+        while (!heads.isEmpty()) {
+            Head head = heads.poll();
+            // Write it before reading the next one because the reader may reuse the record
+            this.writer.write(head.getRecord());
+            Record next = this.readers.get(head.getReaderIndex()).read();
+            if (next != null) {
+                heads.add(new Head(head.getReaderIndex(), next));
+            }
+        }
+    }
+
+    @Data
+    private static class Head {
+        private final int readerIndex;
+        private final Record record;
+    }
+}
@@ -1,32 +1,69 @@
 package com.cookpad.prism.merge;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import com.cookpad.prism.TempFile;
+import com.cookpad.prism.merge.downloader.DownloadedObjectSupplier;
 import com.cookpad.prism.record.Schema;
 
-import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
-import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
-@RequiredArgsConstructor
 @Slf4j
 public class ParallelParquetMerger {
     private final ExecutorService downloadExecutor;
     private final ExecutorService mergeExecutor;
     private final ParquetFileMerger parquetFileMerger;
+    // max number of files merged at once by a single k-way merge
+    private final int fanIn;
+    // null not to limit downloads
+    private final DiskBudget diskBudget;
+    // admits downloads one group at a time in the order of the tree
+    private final ExecutorService admissionExecutor;
+
+    static final int DEFAULT_FAN_IN = 2;
+
+    public ParallelParquetMerger(ExecutorService downloadExecutor, ExecutorService mergeExecutor, ParquetFileMerger parquetFileMerger) {
+        this(downloadExecutor, mergeExecutor, parquetFileMerger, DEFAULT_FAN_IN);
+    }
+
+    public ParallelParquetMerger(ExecutorService downloadExecutor, ExecutorService mergeExecutor, ParquetFileMerger parquetFileMerger, int fanIn) {
+        this(downloadExecutor, mergeExecutor, parquetFileMerger, fanIn, null);
+    }
+
+    public ParallelParquetMerger(ExecutorService downloadExecutor, ExecutorService mergeExecutor, ParquetFileMerger parquetFileMerger, int fanIn, DiskBudget diskBudget) {
+        this.downloadExecutor = downloadExecutor;
+        this.mergeExecutor = mergeExecutor;
+        this.parquetFileMerger = parquetFileMerger;
+        this.fanIn = fanIn;
+        this.diskBudget = diskBudget;
+        if (diskBudget != null) {
+            this.admissionExecutor = Executors.newSingleThreadExecutor((r) -> {
+                Thread th = new Thread(r, "merge-download-admission");
+                th.setDaemon(true);
+                return th;
+            });
+        } else {
+            this.admissionExecutor = null;
+        }
+    }
 
     public void shutdown() {
+        if (admissionExecutor != null) {
+            admissionExecutor.shutdownNow();
+        }
         downloadExecutor.shutdownNow();
         try {
             while (! downloadExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
@@ -61,12 +98,25 @@ public class ParallelParquetMerger {
         return result;
     }
 
+    // Starts merging without waiting; trees merged at the same time share the executors and the disk budget
+    public CompletableFuture<? extends TempFile> mergeTreeAsync(Schema schema, Node root) {
+        return root.toCompletableFuture(schema);
+    }
+
     public Node toNode(Supplier<? extends TempFile> supplier) {
-        return new SupplierNode(this.downloadExecutor, supplier);
+        long size = 0;
+        if (supplier instanceof DownloadedObjectSupplier) {
+            size = ((DownloadedObjectSupplier)supplier).getContentLength();
+        }
+        return new SupplierNode(this.downloadExecutor, supplier, size);
     }
 
     public Node toMergeNode(Node left, Node right) {
-        return new MergeNode(this.mergeExecutor, this.parquetFileMerger, left, right);
+        return this.toMergeNode(List.of(left, right));
+    }
+
+    public Node toMergeNode(List<Node> children) {
+        return new MergeNode(this.mergeExecutor, this.parquetFileMerger, children, this.diskBudget, this.admissionExecutor);
     }
 
     public Node buildTree(List<? extends Supplier<? extends TempFile>> suppliers) {
@@ -79,16 +129,20 @@ public class ParallelParquetMerger {
         if (nodes.size() == 1) {
             return nodes.get(0);
         }
+        // Split nodes into groups of at most fanIn nodes, as even as possible
+        int fanIn = Math.max(this.fanIn, 2);
+        int groups = (nodes.size() + fanIn - 1) / fanIn;
         List<Node> newNodes = new ArrayList<>();
-        for (int i = 0; i < nodes.size(); i += 2) {
-            if (i + 1 < nodes.size()) {
-                Node left = nodes.get(i);
-                Node right = nodes.get(i + 1);
-                Node newNode = this.toMergeNode(left, right);
-                newNodes.add(newNode);
+        int from = 0;
+        for (int i = 0; i < groups; i++) {
+            int to = from + (nodes.size() - from) / (groups - i);
+            List<Node> group = nodes.subList(from, to);
+            if (group.size() == 1) {
+                newNodes.add(group.get(0));
             } else {
-                newNodes.add(nodes.get(i));
+                newNodes.add(this.toMergeNode(new ArrayList<>(group)));
             }
+            from = to;
         }
         return this.buildTreeFromNodeList(newNodes);
     }
@@ -103,24 +157,48 @@ public class ParallelParquetMerger {
 
     @RequiredArgsConstructor
     @Slf4j
-    public static class MergeTask implements BiFunction<TempFile, TempFile, TempFile> {
+    public static class MergeTask implements Function<List<TempFile>, TempFile> {
         private final Schema schema;
         private final ParquetFileMerger parquetFileMerger;
 
         @Override
-        public TempFile apply(TempFile t, TempFile u) {
-            TempFile outFile = null;
+        public TempFile apply(List<TempFile> inputs) {
+            try {
+                return this.merge(inputs);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                for (TempFile input : inputs) {
+                    closeForce(input);
+                }
+            }
+        }
+
+        // Does not delete inputs
+        private TempFile merge(List<TempFile> inputs) throws IOException {
+            TempFile outFile = new TempFile("prism-merge-", ".parquet");
             boolean succeeded = false;
             try {
-                outFile = new TempFile("prism-merge-", ".parquet");
-                this.parquetFileMerger.merge(schema, t.getPath(), u.getPath(), outFile.getPath());
+                List<Path> paths = inputs.stream().map(TempFile::getPath).collect(Collectors.toList());
+                this.parquetFileMerger.merge(schema, paths, outFile.getPath());
                 succeeded = true;
                 return outFile;
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+            } catch (ParquetFileMerger.ResourceExhaustedException e) {
+                if (inputs.size() <= 2) {
+                    throw e;
+                }
+                // Fall back to multi-pass: merge each half and then merge them
+                log.warn("Falling back to merging {} files in two passes: {}", inputs.size(), e.getCause().toString());
+                closeForce(outFile);
+                outFile = null;
+                int half = inputs.size() / 2;
+                try (TempFile left = this.merge(inputs.subList(0, half));
+                        TempFile right = this.merge(inputs.subList(half, inputs.size()))) {
+                    TempFile merged = this.merge(List.of(left, right));
+                    succeeded = true;
+                    return merged;
+                }
             } finally {
-                closeForce(t);
-                closeForce(u);
                 if (outFile != null && !succeeded) {
                     closeForce(outFile);
                 }
@@ -144,6 +222,8 @@ public class ParallelParquetMerger {
     private static class SupplierNode implements Node {
         private final ExecutorService executor;
         private final Supplier<? extends TempFile> supplier;
+        // expected size of the file on local disk
+        private final long size;
 
         @Override
         public CompletableFuture<? extends TempFile> toCompletableFuture(Schema _schema) {
@@ -155,20 +235,60 @@ public class ParallelParquetMerger {
     private static class MergeNode implements Node {
         private final ExecutorService executor;
         private final ParquetFileMerger parquetFileMerger;
-
-        @Getter
-        @Setter
         @NonNull
-        private Node left;
-        @Getter
-        @Setter
-        @NonNull
-        private Node right;
+        private final List<Node> children;
+        private final DiskBudget diskBudget;
+        private final ExecutorService admissionExecutor;
 
         @Override
         public CompletableFuture<TempFile> toCompletableFuture(Schema schema) {
-            return this.left.toCompletableFuture(schema).thenCombineAsync(this.right.toCompletableFuture(schema),
-                    new MergeTask(schema, this.parquetFileMerger), this.executor);
+            List<SupplierNode> downloads = this.children.stream()
+                .filter((child) -> child instanceof SupplierNode)
+                .map((child) -> (SupplierNode)child)
+                .collect(Collectors.toList());
+            if (this.diskBudget == null || downloads.isEmpty()) {
+                List<CompletableFuture<? extends TempFile>> futures = this.children.stream()
+                    .map((child) -> child.toCompletableFuture(schema))
+                    .collect(Collectors.toList());
+                return this.merge(schema, futures);
+            }
+
+            // Start downloads of this node after all merges below finished,
+            // so that the reservation is never held while waiting for other downloads
+            List<CompletableFuture<? extends TempFile>> subtrees = this.children.stream()
+                .filter((child) -> !(child instanceof SupplierNode))
+                .map((child) -> child.toCompletableFuture(schema))
+                .collect(Collectors.toList());
+            long bytes = downloads.stream().mapToLong((download) -> download.size).sum();
+            CompletableFuture<DiskBudget.Reservation> admitted = CompletableFuture.allOf(subtrees.toArray(new CompletableFuture<?>[0]))
+                .thenApplyAsync((_void) -> {
+                    try {
+                        return this.diskBudget.acquire(bytes, downloads.size());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CompletionException(e);
+                    }
+                }, this.admissionExecutor);
+
+            List<CompletableFuture<? extends TempFile>> futures = new ArrayList<>();
+            int subtreeIndex = 0;
+            for (Node child : this.children) {
+                if (child instanceof SupplierNode) {
+                    futures.add(admitted.thenCompose((_reservation) -> child.toCompletableFuture(schema)));
+                } else {
+                    futures.add(subtrees.get(subtreeIndex++));
+                }
+            }
+            // Downloaded files are deleted by the merge
+            return this.merge(schema, futures).whenComplete((_result, _e) -> admitted.thenAccept(DiskBudget.Reservation::close));
+        }
+
+        private CompletableFuture<TempFile> merge(Schema schema, List<CompletableFuture<? extends TempFile>> futures) {
+            return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .thenApplyAsync((_void) -> {
+                    List<TempFile> inputs = futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+                    return new MergeTask(schema, this.parquetFileMerger).apply(inputs);
+                }, this.executor);
         }
     }
 }
@@ -2,29 +2,293 @@ package com.cookpad.prism.merge;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.column.statistics.LongStatistics;
+import org.apache.parquet.column.statistics.Statistics;
+import org.apache.parquet.format.converter.ParquetMetadataConverter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetFileWriter;
 import org.apache.parquet.hadoop.ParquetReader;
 import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.ParquetFileWriter.Mode;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnPath;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.schema.MessageType;
+import com.cookpad.prism.TempFile;
 import com.cookpad.prism.record.Record;
 import com.cookpad.prism.record.RecordReaderFactory;
 import com.cookpad.prism.record.RecordWriterFactory;
 import com.cookpad.prism.record.Schema;
-import org.springframework.stereotype.Component;
+import com.cookpad.prism.record.WriterProfile;
 
+import lombok.Data;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 
 @RequiredArgsConstructor
-@Component
+@Slf4j
 public class ParquetFileMerger {
     private final RecordWriterFactory recordWriterFactory;
     private final RecordReaderFactory recordReaderFactory;
+    private final Configuration conf;
+    // Inputs smaller than this are always rewritten so that the output does not consist of tiny row groups
+    private final long copyThreshold;
+
+    // Always merges records
+    public ParquetFileMerger(RecordWriterFactory recordWriterFactory, RecordReaderFactory recordReaderFactory) {
+        this(recordWriterFactory, recordReaderFactory, null, Long.MAX_VALUE);
+    }
+
+    @SuppressWarnings("serial")
+    public static class ResourceExhaustedException extends IOException {
+        public ResourceExhaustedException(int inputs, Throwable cause) {
+            super("Could not merge " + inputs + " files at once", cause);
+        }
+    }
 
     public void merge(Schema schema, Path inputFilePathA, Path inputFilePathB, Path outputFilePath) throws IOException {
-        try (ParquetWriter<Record> writer = recordWriterFactory.build(schema, outputFilePath)) {
+        try (ParquetWriter<Record> writer = recordWriterFactory.build(schema, outputFilePath, schema.getWriterProfiles().get(WriterProfile.Purpose.MERGED_OBJECT))) {
             try (ParquetReader<Record> readerA = recordReaderFactory.build(schema, inputFilePathA);
                     ParquetReader<Record> readerB = recordReaderFactory.build(schema, inputFilePathB)) {
                 new ParquetMerger(readerA, readerB, writer).merge();
             }
         }
     }
+
+    // Merges all inputs in a single pass.
+    // Inputs whose timestamp range does not overlap with any other input are copied row group by row group
+    // without decoding records; the rest are merged record by record.
+    // Throws ResourceExhaustedException if file descriptors or memory ran short to read all inputs at once;
+    // the caller may retry with fewer inputs.
+    public void merge(Schema schema, List<Path> inputFilePaths, Path outputFilePath) throws IOException {
+        List<Segment> segments = this.planSegments(schema, inputFilePaths);
+        if (segments.size() == 1 && !segments.get(0).isCopy()) {
+            this.mergeRecords(schema, inputFilePaths, outputFilePath);
+            return;
+        }
+        List<TempFile> mergedFiles = new ArrayList<>();
+        try {
+            List<Path> parts = new ArrayList<>();
+            for (Segment segment : segments) {
+                if (segment.isCopy()) {
+                    parts.add(segment.getInputs().get(0));
+                } else {
+                    TempFile merged = new TempFile("prism-merge-", ".parquet");
+                    mergedFiles.add(merged);
+                    this.mergeRecords(schema, segment.getInputs(), merged.getPath());
+                    parts.add(merged.getPath());
+                }
+            }
+            log.debug("Concatenating {} parts ({} copied as is) into {}", parts.size(), parts.size() - mergedFiles.size(), outputFilePath);
+            this.concatenate(schema, parts, outputFilePath);
+        } finally {
+            for (TempFile merged : mergedFiles) {
+                merged.close();
+            }
+        }
+    }
+
+    // Copies row groups of parts into outputFilePath; the output is deleted on failure
+    void concatenate(Schema schema, List<Path> parts, Path outputFilePath) throws IOException {
+        org.apache.hadoop.fs.Path output = toHadoopPath(outputFilePath);
+        ParquetFileWriter writer = new ParquetFileWriter(this.conf, schema.toMessageType(), output, Mode.OVERWRITE);
+        try {
+            writer.start();
+            for (Path part : parts) {
+                writer.appendFile(this.conf, toHadoopPath(part));
+            }
+            writer.end(Collections.emptyMap());
+        } catch (IOException | RuntimeException e) {
+            release(writer);
+            try {
+                output.getFileSystem(this.conf).delete(output, false);
+            } catch (IOException | RuntimeException ex) {
+                log.warn("Failed to delete partial output: {}", outputFilePath, ex);
+            }
+            throw e;
+        }
+    }
+
+    // ParquetFileWriter of parquet 1.9 has no close(); end() is the only way to close its output stream.
+    // A failure in the middle of a row group leaves the writer in a block, which must be ended first.
+    private static void release(ParquetFileWriter writer) {
+        try {
+            writer.end(Collections.emptyMap());
+        } catch (IOException | RuntimeException e) {
+            try {
+                writer.endBlock();
+                writer.end(Collections.emptyMap());
+            } catch (IOException | RuntimeException ex) {
+                log.debug("Failed to release parquet file writer", ex);
+            }
+        }
+    }
+
+    private void mergeRecords(Schema schema, List<Path> inputFilePaths, Path outputFilePath) throws IOException {
+        if (inputFilePaths.size() == 2) {
+            this.merge(schema, inputFilePaths.get(0), inputFilePaths.get(1), outputFilePath);
+            return;
+        }
+        List<ParquetReader<Record>> readers = new ArrayList<>();
+        try (ParquetWriter<Record> writer = recordWriterFactory.build(schema, outputFilePath, schema.getWriterProfiles().get(WriterProfile.Purpose.MERGED_OBJECT))) {
+            for (Path inputFilePath : inputFilePaths) {
+                readers.add(recordReaderFactory.build(schema, inputFilePath));
+            }
+            new MultiwayParquetMerger(readers, writer).merge();
+        } catch (OutOfMemoryError e) {
+            throw new ResourceExhaustedException(inputFilePaths.size(), e);
+        } catch (IOException e) {
+            if (isTooManyOpenFiles(e)) {
+                throw new ResourceExhaustedException(inputFilePaths.size(), e);
+            }
+            throw e;
+        } finally {
+            for (ParquetReader<Record> reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    // Splits inputs into segments ordered by time. A copy segment is a single input which does not overlap with others.
+    // Returns a single merge segment of all inputs if the fast path is not applicable.
+    List<Segment> planSegments(Schema schema, List<Path> inputFilePaths) throws IOException {
+        List<Segment> fallback = List.of(new Segment(inputFilePaths, false));
+        if (this.copyThreshold == Long.MAX_VALUE || inputFilePaths.size() < 2) {
+            return fallback;
+        }
+        MessageType messageType = schema.toMessageType();
+        ColumnPath timestampPath = ColumnPath.get(schema.getTimestampColumn().getName());
+        WriterProfile profile = schema.getWriterProfiles().get(WriterProfile.Purpose.MERGED_OBJECT);
+        List<InputStats> inputs = new ArrayList<>();
+        for (Path path : inputFilePaths) {
+            InputStats stats = this.readStats(path, messageType, timestampPath, profile);
+            if (stats == null) {
+                // Timestamp range is unknown
+                return fallback;
+            }
+            inputs.add(stats);
+        }
+        inputs.sort(Comparator.comparingLong(InputStats::getMin));
+
+        // Group inputs into clusters of overlapping time ranges
+        List<List<InputStats>> clusters = new ArrayList<>();
+        long clusterMax = Long.MIN_VALUE;
+        for (InputStats input : inputs) {
+            if (clusters.isEmpty() || input.getMin() < clusterMax) {
+                if (clusters.isEmpty()) {
+                    clusters.add(new ArrayList<>());
+                }
+                clusters.get(clusters.size() - 1).add(input);
+                clusterMax = Math.max(clusterMax, input.getMax());
+            } else {
+                List<InputStats> cluster = new ArrayList<>();
+                cluster.add(input);
+                clusters.add(cluster);
+                clusterMax = input.getMax();
+            }
+        }
+
+        // Consecutive clusters which can not be copied are merged together
+        List<Segment> segments = new ArrayList<>();
+        List<Path> pending = new ArrayList<>();
+        for (List<InputStats> cluster : clusters) {
+            if (cluster.size() == 1 && cluster.get(0).isCopyable() && cluster.get(0).getSize() >= this.copyThreshold) {
+                if (!pending.isEmpty()) {
+                    segments.add(new Segment(pending, false));
+                    pending = new ArrayList<>();
+                }
+                segments.add(new Segment(List.of(cluster.get(0).getPath()), true));
+            } else {
+                for (InputStats input : cluster) {
+                    pending.add(input.getPath());
+                }
+            }
+        }
+        if (!pending.isEmpty()) {
+            segments.add(new Segment(pending, false));
+        }
+        if (segments.size() == 1 && !segments.get(0).isCopy()) {
+            return fallback;
+        }
+        return segments;
+    }
+
+    // Returns null if the timestamp range can not be known from statistics
+    private InputStats readStats(Path path, MessageType messageType, ColumnPath timestampPath, WriterProfile profile) throws IOException {
+        ParquetMetadata footer = ParquetFileReader.readFooter(this.conf, toHadoopPath(path), ParquetMetadataConverter.NO_FILTER);
+        CompressionCodecName codec = profile.getCodec() != null ? profile.getCodec() : WriterProfile.DEFAULT.getCodec();
+        long rowGroupSize = profile.getRowGroupSize() != null ? profile.getRowGroupSize() : ParquetWriter.DEFAULT_BLOCK_SIZE;
+        // The writer closes a row group once it exceeds the size, so allow a page more than that
+        long maxRowGroupSize = rowGroupSize + (profile.getPageSize() != null ? profile.getPageSize() : ParquetWriter.DEFAULT_PAGE_SIZE);
+        // Column chunks can be copied only if the file has exactly the same schema
+        boolean copyable = footer.getFileMetaData().getSchema().equals(messageType);
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (BlockMetaData block : footer.getBlocks()) {
+            // Copied row groups must look as if they were written with the merged object profile
+            if (block.getCompressedSize() > maxRowGroupSize) {
+                copyable = false;
+            }
+            if (block.getRowCount() == 0) {
+                continue;
+            }
+            Statistics<?> stats = null;
+            for (ColumnChunkMetaData column : block.getColumns()) {
+                if (column.getCodec() != codec) {
+                    copyable = false;
+                }
+                if (column.getPath().equals(timestampPath)) {
+                    stats = column.getStatistics();
+                }
+            }
+            if (!(stats instanceof LongStatistics) || !stats.hasNonNullValue() || stats.getNumNulls() > 0) {
+                return null;
+            }
+            LongStatistics longStats = (LongStatistics)stats;
+            min = Math.min(min, longStats.getMin());
+            max = Math.max(max, longStats.getMax());
+        }
+        if (min > max) {
+            // no records
+            return null;
+        }
+        return new InputStats(path, min, max, path.toFile().length(), copyable);
+    }
+
+    private static org.apache.hadoop.fs.Path toHadoopPath(Path path) {
+        return new org.apache.hadoop.fs.Path(path.toAbsolutePath().toString());
+    }
+
+    @Data
+    static class Segment {
+        private final List<Path> inputs;
+        private final boolean copy;
+    }
+
+    @Data
+    private static class InputStats {
+        private final Path path;
+        private final long min;
+        private final long max;
+        private final long size;
+        private final boolean copyable;
+    }
+
+    static boolean isTooManyOpenFiles(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            String message = t.getMessage();
+            if (message != null && message.contains("Too many open files")) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -16,8 +16,19 @@ import lombok.ToString;
 @ToString
 public class PrismMergeConf extends PrismConf {
     long mergeJobTimeout;
+    long mergeJobHeartbeatInterval;
+    boolean mergeJobListen;
+    long mergeJobPollInterval;
+    long mergeJobAffinityDelay;
     long mergedObjectSize;
     int mergeBatchSize;
+    long mergeJobSize;
     int downloaderThreads;
     int mergerThreads;
+    int mergeFanIn = 2;
+    long mergeCopyThreshold = Long.MAX_VALUE;
+    long mergedObjectCacheSize;
+    int concurrentJobs = 1;
+    long downloadBudgetBytes;
+    int downloadBudgetFiles;
 }
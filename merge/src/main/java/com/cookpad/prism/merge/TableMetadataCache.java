@@ -0,0 +1,42 @@
+package com.cookpad.prism.merge;
+
+import java.time.Duration;
+
+import com.cookpad.prism.ExpiringCache;
+import com.cookpad.prism.SchemaBuilder;
+import com.cookpad.prism.SchemaBuilder.BadColumnsError;
+import com.cookpad.prism.record.Schema;
+import com.cookpad.prism.dao.OneToMany;
+import com.cookpad.prism.dao.PrismTable;
+import com.cookpad.prism.dao.PrismTableMapper;
+import com.cookpad.prism.dao.StreamColumn;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+// Tables and their schemas by table id, reused for metadata-cache-ttl
+@Component
+public class TableMetadataCache {
+    private final PrismTableMapper tableMapper;
+    private final SchemaBuilder schemaBuilder = new SchemaBuilder();
+    private final ExpiringCache<Integer, TableMetadata> cache;
+
+    public TableMetadataCache(PrismTableMapper tableMapper, PrismMergeConf prismConf) {
+        this.tableMapper = tableMapper;
+        this.cache = new ExpiringCache<>(Duration.ofSeconds(prismConf.getMetadataCacheTtl()));
+    }
+
+    public TableMetadata get(int tableId) throws BadColumnsError {
+        return this.cache.get(tableId, (id) -> {
+            OneToMany<PrismTable, StreamColumn> tableWithColumns = this.tableMapper.findWithColumns(id);
+            Schema schema = this.schemaBuilder.build(tableWithColumns.getOne(), tableWithColumns.getMany());
+            return new TableMetadata(tableWithColumns.getOne(), schema);
+        });
+    }
+
+    @Data
+    public static class TableMetadata {
+        private final PrismTable table;
+        private final Schema schema;
+    }
+}
@@ -0,0 +1,67 @@
+package com.cookpad.prism.merge.downloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+
+import com.cookpad.prism.objectstore.MergedObjectStore;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+// Serves merged object files from MergedObjectCache and caches merged objects on upload.
+// Cache hits are checked against the ETag of the stored object, which costs a HEAD request instead of a download.
+@RequiredArgsConstructor
+@Slf4j
+public class CachedMergedObjectStore implements MergedObjectStore {
+    private final MergedObjectStore mergedObjectStore;
+    private final MergedObjectCache cache;
+    private final long tableId;
+
+    private MergedObjectCache.Key key(LocalDate dt, long lowerBound, long upperBound) {
+        return new MergedObjectCache.Key(this.tableId, dt, lowerBound, upperBound);
+    }
+
+    @Override
+    public InputStream getMergedObject(LocalDate dt, long lowerBound, long upperBound) {
+        return this.mergedObjectStore.getMergedObject(dt, lowerBound, upperBound);
+    }
+
+    @Override
+    public File getMergedObjectFile(LocalDate dt, long lowerBound, long upperBound) throws IOException {
+        MergedObjectCache.Key key = this.key(dt, lowerBound, upperBound);
+        if (this.cache.contains(key)) {
+            File cached = this.cache.get(key, this.mergedObjectStore.getMergedObjectETag(dt, lowerBound, upperBound));
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return this.mergedObjectStore.getMergedObjectFile(dt, lowerBound, upperBound);
+    }
+
+    @Override
+    public String putMergedObjectFile(LocalDate dt, long lowerBound, long upperBound, File content) {
+        String key = this.mergedObjectStore.putMergedObjectFile(dt, lowerBound, upperBound, content);
+        try {
+            String eTag = this.mergedObjectStore.getMergedObjectETag(dt, lowerBound, upperBound);
+            if (eTag != null) {
+                this.cache.put(this.key(dt, lowerBound, upperBound), content, eTag);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Just download it next time
+            log.warn("Failed to cache merged object: {}", key, e);
+        }
+        return key;
+    }
+
+    @Override
+    public String getMergedObjectETag(LocalDate dt, long lowerBound, long upperBound) {
+        return this.mergedObjectStore.getMergedObjectETag(dt, lowerBound, upperBound);
+    }
+
+    @Override
+    public String putMergedPartitionManifest(LocalDate dt, long manifestVersion, String content) {
+        return this.mergedObjectStore.putMergedPartitionManifest(dt, manifestVersion, content);
+    }
+}
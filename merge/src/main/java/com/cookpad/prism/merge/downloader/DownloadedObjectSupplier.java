@@ -6,11 +6,19 @@ import java.util.function.Supplier;
 
 import com.cookpad.prism.TempFile;
 
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
 @RequiredArgsConstructor
 public class DownloadedObjectSupplier implements Supplier<TempFile> {
     private final ObjectDownloader downloader;
+    // expected size of the downloaded file; 0 if unknown
+    @Getter
+    private final long contentLength;
+
+    public DownloadedObjectSupplier(ObjectDownloader downloader) {
+        this(downloader, 0);
+    }
 
     @Override
     public TempFile get() {
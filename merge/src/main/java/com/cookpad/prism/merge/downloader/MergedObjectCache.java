@@ -0,0 +1,140 @@
+package com.cookpad.prism.merge.downloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import lombok.Data;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+// Keeps recently produced merged objects on local disk so that the next merge of the same partition
+// does not have to download the object it just uploaded.
+// Entries are evicted in LRU order when the total size exceeds capacity.
+// Each entry records the ETag of the object it was cached for, because the object can be overwritten
+// by another process (e.g. rebuild) and the cached content must not be used then.
+// Files are shared with callers by hard links, so callers may delete returned files freely.
+@Slf4j
+public class MergedObjectCache implements AutoCloseable {
+    @Getter
+    private final Path directory;
+    private final long capacity;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize = 0;
+
+    public MergedObjectCache(Path directory, long capacity) {
+        this.directory = directory;
+        this.capacity = capacity;
+    }
+
+    public static MergedObjectCache createTemporary(long capacity) throws IOException {
+        return new MergedObjectCache(Files.createTempDirectory("prism-merged-cache-"), capacity);
+    }
+
+    public synchronized boolean contains(Key key) {
+        return this.entries.containsKey(key);
+    }
+
+    // Returns a new file which has the content of the cached object,
+    // or null if it is not cached or the cached one is not the current object (eTag)
+    public synchronized File get(Key key, String eTag) throws IOException {
+        Entry entry = this.entries.get(key);
+        if (entry == null) {
+            log.debug("Merged object cache miss: {}", key);
+            return null;
+        }
+        if (!entry.getETag().equals(eTag)) {
+            log.info("Merged object was overwritten, drop the cached one: {}", key);
+            this.entries.remove(key);
+            this.delete(entry);
+            return null;
+        }
+        log.debug("Merged object cache hit: {}", key);
+        Path path = Files.createTempFile("prism-merged-", ".parquet");
+        Files.delete(path);
+        this.linkOrCopy(entry.getPath(), path);
+        return path.toFile();
+    }
+
+    public synchronized void put(Key key, File content, String eTag) throws IOException {
+        long size = content.length();
+        if (size > this.capacity) {
+            return;
+        }
+        Path path = this.directory.resolve(UUID.randomUUID().toString() + ".parquet");
+        this.linkOrCopy(content.toPath(), path);
+        Entry old = this.entries.put(key, new Entry(path, size, eTag));
+        if (old != null) {
+            this.delete(old);
+        }
+        this.totalSize += size;
+        this.evict();
+    }
+
+    public synchronized long getTotalSize() {
+        return this.totalSize;
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    // Deletes all cached files and the directory
+    @Override
+    public synchronized void close() throws IOException {
+        for (Entry entry : this.entries.values()) {
+            this.delete(entry);
+        }
+        this.entries.clear();
+        Files.deleteIfExists(this.directory);
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Key, Entry>> it = this.entries.entrySet().iterator();
+        while (this.totalSize > this.capacity && it.hasNext()) {
+            Map.Entry<Key, Entry> eldest = it.next();
+            log.debug("Evict merged object from cache: {}", eldest.getKey());
+            it.remove();
+            this.delete(eldest.getValue());
+        }
+    }
+
+    private void delete(Entry entry) {
+        this.totalSize -= entry.getSize();
+        try {
+            Files.deleteIfExists(entry.getPath());
+        } catch (IOException e) {
+            log.warn("Failed to delete cached merged object: {}", entry.getPath(), e);
+        }
+    }
+
+    private void linkOrCopy(Path existing, Path link) throws IOException {
+        try {
+            Files.createLink(link, existing);
+        } catch (UnsupportedOperationException | IOException e) {
+            // e.g. on a different file system
+            Files.copy(existing, link);
+        }
+    }
+
+    @Data
+    public static class Key {
+        private final long tableId;
+        private final LocalDate dt;
+        private final long lowerBound;
+        private final long upperBound;
+    }
+
+    @Data
+    private static class Entry {
+        private final Path path;
+        private final long size;
+        private final String eTag;
+    }
+}
@@ -16,7 +16,7 @@ public class MergedObjectSupplierFactory {
     private final MergedObjectStore mergedObjectStore;
 
     public DownloadedObjectSupplier createSupplier(PrismMergeRange mergeRange, PrismPartition partition) {
-        return new DownloadedObjectSupplier(new MergedObjectDownloader(partition.getPartitionDate(), mergeRange.getLowerBound(), mergeRange.getUpperBound(), this.mergedObjectStore));
+        return new DownloadedObjectSupplier(new MergedObjectDownloader(partition.getPartitionDate(), mergeRange.getLowerBound(), mergeRange.getUpperBound(), this.mergedObjectStore), mergeRange.getContentLength());
     }
 
     @RequiredArgsConstructor
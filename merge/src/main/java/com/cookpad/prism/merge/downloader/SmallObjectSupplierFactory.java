@@ -21,9 +21,9 @@ public class SmallObjectSupplierFactory {
         LocalDate dt = partition.getPartitionDate();
         long objectId = smallObject.getStagingObjectId();
         if (smallObject.isDelayed()) {
-            return new DownloadedObjectSupplier(new DelayedObjectDownloader(dt, objectId, this.smallObjectStore));
+            return new DownloadedObjectSupplier(new DelayedObjectDownloader(dt, objectId, this.smallObjectStore), smallObject.getContentLength());
         } else {
-            return new DownloadedObjectSupplier(new LiveObjectDownloader(dt, objectId, this.smallObjectStore));
+            return new DownloadedObjectSupplier(new LiveObjectDownloader(dt, objectId, this.smallObjectStore), smallObject.getContentLength());
         }
     }
 
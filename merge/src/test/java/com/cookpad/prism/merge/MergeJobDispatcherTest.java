@@ -0,0 +1,128 @@
+package com.cookpad.prism.merge;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.cookpad.prism.merge.MergeJobHandler.JobStatus;
+import com.cookpad.prism.dao.PrismMergeJob;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+public class MergeJobDispatcherTest {
+    @Test
+    void testHandleJobsConcurrently() throws Exception {
+        var time = LocalDateTime.now();
+        var job1 = new PrismMergeJob(1, 10, time, 1, time);
+        var job2 = new PrismMergeJob(2, 20, time, 2, time);
+        var queue = mock(MergeJobQueue.class);
+        when(queue.dequeue(anyInt())).thenReturn(job1, job2);
+        var started = new CountDownLatch(2);
+        var handler = mock(MergeJobHandler.class);
+        when(handler.handleJob(any(), any())).then((invocation) -> {
+            started.countDown();
+            // Both jobs must be running at the same time to get here
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            return JobStatus.FINISHED;
+        });
+        var dispatcher = new MergeJobDispatcher(queue, handler, Executors.newFixedThreadPool(2), 2);
+        dispatcher.handleStep();
+        dispatcher.handleStep();
+        dispatcher.shutdown();
+
+        verify(queue).delete(job1);
+        verify(queue).delete(job2);
+        verify(queue, never()).retry(any());
+        verify(handler).shutdown();
+    }
+
+    @Test
+    void testRetryJobOfRunningPartition() throws Exception {
+        var time = LocalDateTime.now();
+        var job1 = new PrismMergeJob(1, 10, time, 1, time);
+        var job2 = new PrismMergeJob(2, 10, time, 2, time);
+        var queue = mock(MergeJobQueue.class);
+        when(queue.dequeue(anyInt())).thenReturn(job1, job2);
+        var release = new CountDownLatch(1);
+        var handler = mock(MergeJobHandler.class);
+        when(handler.handleJob(any(), any())).then((invocation) -> {
+            release.await(10, TimeUnit.SECONDS);
+            return JobStatus.FINISHED;
+        });
+        var dispatcher = new MergeJobDispatcher(queue, handler, Executors.newFixedThreadPool(2), 2);
+        dispatcher.handleStep();
+        dispatcher.handleStep();
+        release.countDown();
+        dispatcher.shutdown();
+
+        verify(handler).handleJob(eq(job1), any());
+        verify(handler, never()).handleJob(eq(job2), any());
+        verify(queue).delete(job1);
+        verify(queue).retry(job2);
+    }
+
+    @Test
+    void testRethrowJobFailure() throws Exception {
+        var time = LocalDateTime.now();
+        var job = new PrismMergeJob(1, 10, time, 1, time);
+        var queue = mock(MergeJobQueue.class);
+        when(queue.dequeue(anyInt())).thenReturn(job);
+        var handler = mock(MergeJobHandler.class);
+        when(handler.handleJob(any(), any())).thenThrow(new IllegalStateException("failed"));
+        var dispatcher = new MergeJobDispatcher(queue, handler);
+
+        assertThrows(RuntimeException.class, () -> dispatcher.handleStep());
+        verify(queue, never()).delete(any());
+    }
+
+    @Test
+    void testAbortJobOnLostLease() throws Exception {
+        var time = LocalDateTime.now();
+        var job = new PrismMergeJob(1, 10, time, 1, time);
+        var queue = mock(MergeJobQueue.class);
+        when(queue.dequeue(anyInt())).thenReturn(job);
+        // The job has been retried by another worker
+        when(queue.heartbeat(job)).thenReturn(false);
+        var handler = mock(MergeJobHandler.class);
+        when(handler.handleJob(any(), any())).then((invocation) -> {
+            MergeJobLease lease = invocation.getArgument(1);
+            for (int i = 0; i < 100 && !lease.isLost(); i++) {
+                Thread.sleep(100);
+            }
+            lease.check();
+            return JobStatus.FINISHED;
+        });
+        ScheduledExecutorService heartbeatScheduler = Executors.newSingleThreadScheduledExecutor();
+        var dispatcher = new MergeJobDispatcher(queue, handler, null, 1, heartbeatScheduler, 1);
+        dispatcher.handleStep();
+        dispatcher.shutdown();
+
+        verify(queue).heartbeat(job);
+        verify(queue, never()).delete(any());
+        verify(queue, never()).retry(any());
+    }
+
+    @Test
+    void testWakeUpOwnDispatcherOnContinuingJob() throws Exception {
+        var time = LocalDateTime.now();
+        var job = new PrismMergeJob(1, 10, time, 1, time);
+        var queue = mock(MergeJobQueue.class);
+        when(queue.dequeue(anyInt())).thenReturn(job);
+        var handler = mock(MergeJobHandler.class);
+        when(handler.handleJob(any(), any())).thenReturn(JobStatus.CONTINUING);
+        var wakeup = new MergeJobWakeup(null);
+        long token = wakeup.token();
+        var dispatcher = new MergeJobDispatcher(queue, handler, null, 1, null, 0, wakeup);
+        dispatcher.handleStep();
+
+        verify(queue).continueJob(job);
+        verify(queue, never()).delete(any());
+        assertNotEquals(token, wakeup.token());
+    }
+}
@@ -0,0 +1,82 @@
+package com.cookpad.prism.merge;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import com.cookpad.prism.dao.PrismMergeJob;
+import com.cookpad.prism.dao.PrismMergeJobMapper;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.*;
+
+public class MergeJobQueueTest {
+    @Test
+    void testDequeueClaimedJobs() {
+        var clock = Clock.fixed(Instant.parse("2019-03-01T00:00:00Z"), ZoneOffset.UTC);
+        var now = LocalDateTime.ofInstant(clock.instant(), ZoneOffset.UTC);
+        var job1 = new PrismMergeJob(1, 10, now, 1, now);
+        var job2 = new PrismMergeJob(2, 20, now, 2, now);
+        var job3 = new PrismMergeJob(3, 30, now, 3, now);
+        var mapper = mock(PrismMergeJobMapper.class);
+        when(mapper.dequeue(eq(now), eq(3), any())).thenReturn(List.of(job1, job2, job3));
+        when(mapper.dequeue(eq(now), eq(2), any())).thenReturn(List.of());
+        var conf = new PrismMergeConf();
+        conf.setMergeJobPollInterval(30);
+        var queue = new MergeJobQueue(conf, mapper, clock);
+
+        assertEquals(job1, queue.dequeue(3));
+        // Handed out from the claimed jobs without querying
+        assertEquals(job2, queue.dequeue(3));
+        verify(mapper, times(1)).dequeue(any(), anyInt(), any());
+        verify(mapper, times(1)).findTimedoutJobs(any(), anyInt());
+
+        queue.releaseClaimedJobs();
+        verify(mapper).retry(30, now, null, null, now);
+        verify(mapper).delete(3, now);
+
+        assertNull(queue.dequeue(2));
+        // Timed-out jobs are not checked until the poll interval passes
+        verify(mapper, times(1)).findTimedoutJobs(any(), anyInt());
+    }
+
+    @Test
+    void testContinueJobOnSameWorker() {
+        var clock = Clock.fixed(Instant.parse("2019-03-01T00:00:00Z"), ZoneOffset.UTC);
+        var now = LocalDateTime.ofInstant(clock.instant(), ZoneOffset.UTC);
+        // Scheduled long ago; the affinity must not have expired already
+        var scheduleTime = now.minusHours(1);
+        var job = new PrismMergeJob(1, 10, scheduleTime, 1, now);
+        var mapper = mock(PrismMergeJobMapper.class);
+        when(mapper.dequeue(any(), anyInt(), any())).thenReturn(List.of(job));
+        var conf = new PrismMergeConf();
+        conf.setMergeJobAffinityDelay(30);
+        var queue = new MergeJobQueue(conf, mapper, clock);
+
+        assertEquals(job, queue.dequeue(1));
+        var worker = ArgumentCaptor.forClass(String.class);
+        verify(mapper).dequeue(eq(now), eq(1), worker.capture());
+
+        queue.continueJob(job);
+        // Jobs preferred by other workers are stolen after the delay from now
+        verify(mapper).retry(10, scheduleTime, worker.getValue(), now.plusSeconds(30), now);
+        verify(mapper).delete(1, now);
+    }
+
+    @Test
+    void testContinueJobWithoutAffinity() {
+        var clock = Clock.fixed(Instant.parse("2019-03-01T00:00:00Z"), ZoneOffset.UTC);
+        var now = LocalDateTime.ofInstant(clock.instant(), ZoneOffset.UTC);
+        var job = new PrismMergeJob(1, 10, now, 1, now);
+        var mapper = mock(PrismMergeJobMapper.class);
+        var queue = new MergeJobQueue(new PrismMergeConf(), mapper, clock);
+
+        queue.continueJob(job);
+        verify(mapper).retry(10, now, null, null, now);
+    }
+}
@@ -0,0 +1,42 @@
+package com.cookpad.prism.merge;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MergeJobWakeupTest {
+    @Test
+    void testAwaitTimeout() throws InterruptedException {
+        var wakeup = new MergeJobWakeup(null);
+        long token = wakeup.token();
+        assertFalse(wakeup.await(token, 10));
+    }
+
+    @Test
+    void testNotifiedBeforeAwait() throws InterruptedException {
+        var wakeup = new MergeJobWakeup(null);
+        long token = wakeup.token();
+        // A job is enqueued between dequeue and await
+        wakeup.wakeup();
+        assertTrue(wakeup.await(token, 10000));
+    }
+
+    @Test
+    void testNotifiedWhileAwaiting() throws Exception {
+        var wakeup = new MergeJobWakeup(null);
+        long token = wakeup.token();
+        var awaiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return wakeup.await(token, 10000);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(100);
+        wakeup.wakeup();
+        assertTrue(awaiting.get());
+    }
+}
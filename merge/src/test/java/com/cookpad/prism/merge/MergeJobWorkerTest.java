@@ -1,16 +1,34 @@
 package com.cookpad.prism.merge;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
 
+import com.cookpad.prism.merge.MergeJobLease.LeaseLostException;
+import com.cookpad.prism.merge.MergeJobWorker.MergePlan;
+import com.cookpad.prism.merge.MergeJobWorker.MergePlanExecutor;
+import com.cookpad.prism.merge.MergeJobWorker.MergePlanner;
 import com.cookpad.prism.merge.MergeJobWorker.OpenMergeRange;
+import com.cookpad.prism.objectstore.MergedObjectStore;
+import com.cookpad.prism.objectstore.SmallObjectStore;
 import com.cookpad.prism.record.Schema.Builder.BadSchemaError;
 import com.cookpad.prism.dao.PrismMergeRange;
+import com.cookpad.prism.dao.PrismMergeRangeMapper;
+import com.cookpad.prism.dao.PrismPartition;
 import com.cookpad.prism.dao.PrismSmallObject;
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
 
 import lombok.val;
 
@@ -43,4 +61,71 @@ public class MergeJobWorkerTest {
         val mergeableObjects = openMergeRange.calculateMergeableObjectList(100, smallObjects);
         assertIterableEquals(smallObjects.subList(0, 2), mergeableObjects);
     }
+
+    @Test
+    public void testMakePlans() {
+        val time = LocalDateTime.now();
+        val partition = new PrismPartition(1, 1, LocalDate.of(2019, 3, 1), 0, 0, null, false);
+        val mergeRange = new PrismMergeRange(1, 1, 0, 100, 20, time, time);
+        val openMergeRange = OpenMergeRange.existing(mergeRange);
+        val smallObjects = new ArrayList<PrismSmallObject>();
+        smallObjects.add(new PrismSmallObject(101, 1, 1, false, 30, time));
+        smallObjects.add(new PrismSmallObject(102, 1, 1, false, 30, time));
+        smallObjects.add(new PrismSmallObject(103, 1, 1, false, 30, time));
+        smallObjects.add(new PrismSmallObject(104, 1, 1, false, 200, time));
+        smallObjects.add(new PrismSmallObject(105, 1, 1, false, 30, time));
+
+        val planner = new MergePlanner(100, partition);
+        val plans = planner.makePlans(openMergeRange, smallObjects);
+        assertEquals(4, plans.size());
+        // fills the existing open range
+        assertEquals(0, plans.get(0).getLowerBound());
+        assertEquals(102, plans.get(0).getUpperBound());
+        assertTrue(plans.get(0).getOldMergeRange().isPresent());
+        assertTrue(plans.get(0).isFull());
+        assertEquals(102, plans.get(1).getLowerBound());
+        assertEquals(103, plans.get(1).getUpperBound());
+        assertTrue(plans.get(1).isFull());
+        // an object larger than the limit gets a range of its own
+        assertEquals(103, plans.get(2).getLowerBound());
+        assertEquals(104, plans.get(2).getUpperBound());
+        assertTrue(plans.get(2).isFull());
+        // the last range stays open
+        assertEquals(104, plans.get(3).getLowerBound());
+        assertEquals(105, plans.get(3).getUpperBound());
+        assertFalse(plans.get(3).getOldMergeRange().isPresent());
+        assertFalse(plans.get(3).isFull());
+    }
+
+    @Test
+    public void testExecuteMultiplePlans() throws IOException, LeaseLostException {
+        val time = LocalDateTime.now();
+        val dt = LocalDate.of(2019, 3, 1);
+        val partition = new PrismPartition(1, 1, dt, 0, 0, null, false);
+        val smallObjectStore = mock(SmallObjectStore.class);
+        when(smallObjectStore.getLiveObjectFile(eq(dt), anyLong())).then((invocation) -> {
+            val file = Files.createTempFile("prism-merge-test-", ".parquet");
+            // staging object id as the size
+            Files.write(file, new byte[(int)(long)invocation.getArgument(1)]);
+            return file.toFile();
+        });
+        val mergedObjectStore = mock(MergedObjectStore.class);
+        val mergeRangeMapper = mock(PrismMergeRangeMapper.class);
+        val merger = new ParallelParquetMerger(Executors.newFixedThreadPool(2), Executors.newFixedThreadPool(2), mock(ParquetFileMerger.class));
+        val planExecutor = MergePlanExecutor.of(mergeRangeMapper, merger, smallObjectStore, mergedObjectStore, Clock.systemUTC());
+
+        val plans = List.of(
+            new MergePlan(partition, 0, true, List.of(new PrismSmallObject(101, 30, 1, false, 30, time)), Optional.empty()),
+            new MergePlan(partition, 101, false, List.of(new PrismSmallObject(102, 40, 1, false, 40, time)), Optional.empty())
+        );
+        planExecutor.execute(null, plans, MergeJobLease.NONE);
+
+        // ranges are stored in order
+        val inOrder = inOrder(mergeRangeMapper);
+        inOrder.verify(mergeRangeMapper).upsertRange(eq(1L), eq(0L), eq(101L), eq(30L), any());
+        inOrder.verify(mergeRangeMapper).upsertRange(eq(1L), eq(101L), eq(102L), eq(40L), any());
+        verify(mergedObjectStore).putMergedObjectFile(eq(dt), eq(0L), eq(101L), any());
+        verify(mergedObjectStore).putMergedObjectFile(eq(dt), eq(101L), eq(102L), any());
+        merger.shutdown();
+    }
 }
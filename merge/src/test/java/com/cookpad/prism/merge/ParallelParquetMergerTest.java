@@ -3,7 +3,9 @@ package com.cookpad.prism.merge;
 import java.io.IOException;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.stream.Collectors;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
 import org.apache.hadoop.conf.Configuration;
@@ -23,10 +25,20 @@ import com.cookpad.prism.record.values.Value;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import lombok.val;
 
 public class ParallelParquetMergerTest {
+    // Records read by ParquetReader are reused, so copy their values to compare
+    private Record toValueListRecord(Schema schema, Record record) {
+        if (record == null) {
+            return null;
+        }
+        return new ValueListRecord(schema.getColumns().stream().map((col) -> record.getValue(col.getIndex())).collect(Collectors.toList()));
+    }
+
     @Test
     public void testMergeInterleave() throws BadSchemaError, IOException {
         val schema = new Schema.Builder("test_s", "test_t")
@@ -83,13 +95,124 @@ public class ParallelParquetMergerTest {
         val out = parallelMerger.merge(schema, suppliers);
 
         val reader = readerFactory.build(schema, out.getPath());
-        assertEquals(record1, reader.read());
-        assertEquals(record2, reader.read());
-        assertEquals(record3, reader.read());
-        assertEquals(null, reader.read());
+        assertEquals(record1, this.toValueListRecord(schema, reader.read()));
+        assertEquals(record2, this.toValueListRecord(schema, reader.read()));
+        assertEquals(record3, this.toValueListRecord(schema, reader.read()));
+        assertEquals(null, this.toValueListRecord(schema, reader.read()));
 
         tmp1.close();
         tmp2.close();
         tmp3.close();
     }
+
+    @Test
+    public void testMergeMultiway() throws BadSchemaError, IOException {
+        val schema = new Schema.Builder("test_s", "test_t")
+            .withTimestamp("time", false, ZoneOffset.UTC)
+            .addColumn("value", new UnsizedValueType(ValueKind.BIGINT), false)
+            .build()
+        ;
+        val tsColumn = schema.getColumns().get(0);
+        val valueColumn = schema.getColumns().get(1);
+
+        val conf = new Configuration();
+        val writerFactory = new RecordWriterFactory(conf);
+        val readerFactory = new RecordReaderFactory(conf);
+
+        // file i contains timestamps i, i + 7, i + 14
+        val files = new ArrayList<TempFile>();
+        for (int i = 0; i < 7; i++) {
+            val tmp = new TempFile("prism-merge-test-", ".parquet");
+            try (ParquetWriter<Record> writer = writerFactory.build(schema, tmp.getPath())) {
+                for (long ts = i; ts < 21; ts += 7) {
+                    val values = new ArrayList<Value>();
+                    values.add(new NonNullValue(tsColumn, new PrimitiveValue.LongValue(ts)));
+                    values.add(new NonNullValue(valueColumn, new PrimitiveValue.LongValue(ts * 100)));
+                    writer.write(new ValueListRecord(values));
+                }
+            }
+            files.add(tmp);
+        }
+
+        val ex = Executors.newFixedThreadPool(4);
+        val parquetFileMerger = new ParquetFileMerger(writerFactory, readerFactory);
+        val parallelMerger = new ParallelParquetMerger(ex, ex, parquetFileMerger, 3);
+
+        val suppliers = new ArrayList<Supplier<TempFile>>();
+        for (val file : files) {
+            suppliers.add(() -> file);
+        }
+        try (val out = parallelMerger.merge(schema, suppliers);
+                val reader = readerFactory.build(schema, out.getPath())) {
+            for (long ts = 0; ts < 21; ts++) {
+                val record = reader.read();
+                assertEquals(ts, record.getTimestamp());
+                assertEquals(new NonNullValue(valueColumn, new PrimitiveValue.LongValue(ts * 100)), record.getValue(1));
+            }
+            assertEquals(null, reader.read());
+        }
+        // inputs are deleted after merge
+        for (val file : files) {
+            assertFalse(file.getPath().toFile().exists());
+        }
+        ex.shutdown();
+    }
+
+    @Test
+    public void testMergeWithDiskBudget() throws BadSchemaError, IOException {
+        val schema = new Schema.Builder("test_s", "test_t")
+            .withTimestamp("time", false, ZoneOffset.UTC)
+            .addColumn("value", new UnsizedValueType(ValueKind.BIGINT), false)
+            .build()
+        ;
+        val tsColumn = schema.getColumns().get(0);
+        val valueColumn = schema.getColumns().get(1);
+
+        val conf = new Configuration();
+        val writerFactory = new RecordWriterFactory(conf);
+        val readerFactory = new RecordReaderFactory(conf);
+
+        val files = new ArrayList<TempFile>();
+        for (long i = 0; i < 7; i++) {
+            val tmp = new TempFile("prism-merge-test-", ".parquet");
+            try (ParquetWriter<Record> writer = writerFactory.build(schema, tmp.getPath())) {
+                val values = new ArrayList<Value>();
+                values.add(new NonNullValue(tsColumn, new PrimitiveValue.LongValue(i)));
+                values.add(new NonNullValue(valueColumn, new PrimitiveValue.LongValue(i * 100)));
+                writer.write(new ValueListRecord(values));
+            }
+            files.add(tmp);
+        }
+
+        // counts "downloaded" files which are not deleted yet
+        val live = new AtomicInteger();
+        val maxLive = new AtomicInteger();
+        val suppliers = new ArrayList<Supplier<TempFile>>();
+        for (val file : files) {
+            suppliers.add(() -> {
+                maxLive.accumulateAndGet(live.incrementAndGet(), Math::max);
+                return new TempFile(file.getPath()) {
+                    @Override
+                    public void close() throws IOException {
+                        live.decrementAndGet();
+                        super.close();
+                    }
+                };
+            });
+        }
+
+        val ex = Executors.newFixedThreadPool(4);
+        val parquetFileMerger = new ParquetFileMerger(writerFactory, readerFactory);
+        val parallelMerger = new ParallelParquetMerger(ex, ex, parquetFileMerger, 3, new DiskBudget(0, 3));
+        try (val out = parallelMerger.merge(schema, suppliers);
+                val reader = readerFactory.build(schema, out.getPath())) {
+            for (long ts = 0; ts < 7; ts++) {
+                assertEquals(ts, reader.read().getTimestamp());
+            }
+            assertEquals(null, reader.read());
+        }
+        assertEquals(0, live.get());
+        assertTrue(maxLive.get() <= 3);
+        parallelMerger.shutdown();
+    }
 }
@@ -0,0 +1,167 @@
+package com.cookpad.prism.merge;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import com.cookpad.prism.TempFile;
+import com.cookpad.prism.record.Record;
+import com.cookpad.prism.record.RecordReaderFactory;
+import com.cookpad.prism.record.RecordWriterFactory;
+import com.cookpad.prism.record.Schema;
+import com.cookpad.prism.record.UnsizedValueType;
+import com.cookpad.prism.record.ValueKind;
+import com.cookpad.prism.record.ValueListRecord;
+import com.cookpad.prism.record.WriterProfile;
+import com.cookpad.prism.record.WriterProfiles;
+import com.cookpad.prism.record.Schema.Builder.BadSchemaError;
+import com.cookpad.prism.record.values.NonNullValue;
+import com.cookpad.prism.record.values.PrimitiveValue;
+import com.cookpad.prism.record.values.Value;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import lombok.val;
+
+public class ParquetFileMergerTest {
+    private TempFile writeFile(RecordWriterFactory writerFactory, Schema schema, long... timestamps) throws IOException {
+        val tmp = new TempFile("prism-merge-test-", ".parquet");
+        try (ParquetWriter<Record> writer = writerFactory.build(schema, tmp.getPath())) {
+            for (long ts : timestamps) {
+                val values = new ArrayList<Value>();
+                values.add(new NonNullValue(schema.getColumns().get(0), new PrimitiveValue.LongValue(ts)));
+                values.add(new NonNullValue(schema.getColumns().get(1), new PrimitiveValue.LongValue(ts * 100)));
+                writer.write(new ValueListRecord(values));
+            }
+        }
+        return tmp;
+    }
+
+    @Test
+    public void testMergeWithCopy() throws BadSchemaError, IOException {
+        val schema = new Schema.Builder("test_s", "test_t")
+            .withTimestamp("time", false, ZoneOffset.UTC)
+            .addColumn("value", new UnsizedValueType(ValueKind.BIGINT), false)
+            .build()
+        ;
+        val conf = new Configuration();
+        val writerFactory = new RecordWriterFactory(conf);
+        val readerFactory = new RecordReaderFactory(conf);
+
+        try (val tmpA = this.writeFile(writerFactory, schema, 10, 11, 12);
+                val tmpB = this.writeFile(writerFactory, schema, 0, 1, 2);
+                val tmpC = this.writeFile(writerFactory, schema, 3, 8);
+                val tmpD = this.writeFile(writerFactory, schema, 4, 9);
+                val out = new TempFile("prism-merge-test-", ".parquet")) {
+            val merger = new ParquetFileMerger(writerFactory, readerFactory, conf, 0);
+            val inputs = List.of(tmpA.getPath(), tmpB.getPath(), tmpC.getPath(), tmpD.getPath());
+
+            val segments = merger.planSegments(schema, inputs);
+            assertEquals(3, segments.size());
+            assertTrue(segments.get(0).isCopy());
+            assertEquals(List.of(tmpB.getPath()), segments.get(0).getInputs());
+            // C and D overlap with each other
+            assertFalse(segments.get(1).isCopy());
+            assertEquals(List.of(tmpC.getPath(), tmpD.getPath()), segments.get(1).getInputs());
+            assertTrue(segments.get(2).isCopy());
+            assertEquals(List.of(tmpA.getPath()), segments.get(2).getInputs());
+
+            merger.merge(schema, inputs, out.getPath());
+            try (val reader = readerFactory.build(schema, out.getPath())) {
+                for (long ts : new long[] { 0, 1, 2, 3, 4, 8, 9, 10, 11, 12 }) {
+                    val record = reader.read();
+                    assertEquals(ts, record.getTimestamp());
+                    assertEquals(new NonNullValue(schema.getColumns().get(1), new PrimitiveValue.LongValue(ts * 100)), record.getValue(1));
+                }
+                assertEquals(null, reader.read());
+            }
+        }
+    }
+
+    @Test
+    public void testPlanWithoutThreshold() throws BadSchemaError, IOException {
+        val schema = new Schema.Builder("test_s", "test_t")
+            .withTimestamp("time", false, ZoneOffset.UTC)
+            .addColumn("value", new UnsizedValueType(ValueKind.BIGINT), false)
+            .build()
+        ;
+        val conf = new Configuration();
+        val writerFactory = new RecordWriterFactory(conf);
+        val readerFactory = new RecordReaderFactory(conf);
+
+        try (val tmpA = this.writeFile(writerFactory, schema, 0, 1);
+                val tmpB = this.writeFile(writerFactory, schema, 2, 3)) {
+            val merger = new ParquetFileMerger(writerFactory, readerFactory);
+            val inputs = List.of(tmpA.getPath(), tmpB.getPath());
+            val segments = merger.planSegments(schema, inputs);
+            assertEquals(1, segments.size());
+            assertFalse(segments.get(0).isCopy());
+            assertEquals(inputs, segments.get(0).getInputs());
+        }
+    }
+
+    @Test
+    public void testPlanRewritesInputsOfOtherProfile() throws BadSchemaError, IOException {
+        val conf = new Configuration();
+        val writerFactory = new RecordWriterFactory(conf);
+        val readerFactory = new RecordReaderFactory(conf);
+        val gzipSchema = new Schema.Builder("test_s", "test_t")
+            .withTimestamp("time", false, ZoneOffset.UTC)
+            .addColumn("value", new UnsizedValueType(ValueKind.BIGINT), false)
+            .withWriterProfiles(new WriterProfiles(WriterProfile.DEFAULT, new WriterProfile(CompressionCodecName.GZIP, null, null, null)))
+            .build()
+        ;
+        val tinyRowGroupSchema = new Schema.Builder("test_s", "test_t")
+            .withTimestamp("time", false, ZoneOffset.UTC)
+            .addColumn("value", new UnsizedValueType(ValueKind.BIGINT), false)
+            .withWriterProfiles(new WriterProfiles(WriterProfile.DEFAULT, new WriterProfile(CompressionCodecName.SNAPPY, 1, 1, null)))
+            .build()
+        ;
+
+        // Inputs are written with the default profile, i.e. SNAPPY
+        try (val tmpA = this.writeFile(writerFactory, gzipSchema, 0, 1);
+                val tmpB = this.writeFile(writerFactory, gzipSchema, 2, 3)) {
+            val merger = new ParquetFileMerger(writerFactory, readerFactory, conf, 0);
+            val inputs = List.of(tmpA.getPath(), tmpB.getPath());
+            for (val schema : List.of(gzipSchema, tinyRowGroupSchema)) {
+                val segments = merger.planSegments(schema, inputs);
+                assertEquals(1, segments.size());
+                assertFalse(segments.get(0).isCopy());
+                assertEquals(inputs, segments.get(0).getInputs());
+            }
+        }
+    }
+
+    @Test
+    public void testConcatenateFailure() throws BadSchemaError, IOException {
+        val schema = new Schema.Builder("test_s", "test_t")
+            .withTimestamp("time", false, ZoneOffset.UTC)
+            .addColumn("value", new UnsizedValueType(ValueKind.BIGINT), false)
+            .build()
+        ;
+        val conf = new Configuration();
+        val writerFactory = new RecordWriterFactory(conf);
+        val readerFactory = new RecordReaderFactory(conf);
+
+        try (val tmpA = this.writeFile(writerFactory, schema, 0, 1);
+                val broken = new TempFile("prism-merge-test-", ".parquet")) {
+            Files.write(broken.getPath(), new byte[] { 1, 2, 3 });
+            val out = Files.createTempDirectory("prism-merge-test-").resolve("out.parquet");
+            val merger = new ParquetFileMerger(writerFactory, readerFactory, conf, 0);
+            // parquet rejects a non-parquet file by RuntimeException
+            assertThrows(RuntimeException.class, () -> merger.concatenate(schema, List.of(tmpA.getPath(), broken.getPath()), out));
+            // the partial output is deleted
+            assertEquals(0, Files.list(out.getParent()).count());
+            Files.delete(out.getParent());
+        }
+    }
+}
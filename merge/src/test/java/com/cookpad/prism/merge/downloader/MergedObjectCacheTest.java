@@ -0,0 +1,102 @@
+package com.cookpad.prism.merge.downloader;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+
+import com.cookpad.prism.objectstore.MergedObjectStore;
+
+import lombok.val;
+
+public class MergedObjectCacheTest {
+    private File writeTempFile(int size) throws IOException {
+        val path = Files.createTempFile("prism-cache-test-", ".parquet");
+        Files.write(path, new byte[size]);
+        return path.toFile();
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws IOException {
+        val dt = LocalDate.of(2018, 9, 5);
+        val key1 = new MergedObjectCache.Key(1, dt, 1, 10);
+        val key2 = new MergedObjectCache.Key(1, dt, 1, 20);
+        val key3 = new MergedObjectCache.Key(1, dt, 1, 30);
+        try (val cache = MergedObjectCache.createTemporary(250)) {
+            val file1 = this.writeTempFile(100);
+            cache.put(key1, file1, "etag1");
+            // the cached content survives deletion of the original
+            file1.delete();
+            cache.put(key2, this.writeTempFile(100), "etag2");
+
+            val hit = cache.get(key1, "etag1");
+            assertEquals(100, hit.length());
+            hit.delete();
+
+            // key2 is the least recently used
+            cache.put(key3, this.writeTempFile(100), "etag3");
+            assertEquals(2, cache.size());
+            assertEquals(200, cache.getTotalSize());
+            assertNull(cache.get(key2, "etag2"));
+            assertEquals(100, cache.get(key3, "etag3").length());
+
+            // too large to cache
+            cache.put(new MergedObjectCache.Key(2, dt, 1, 10), this.writeTempFile(300), "etag4");
+            assertEquals(2, cache.size());
+        }
+    }
+
+    @Test
+    public void testCachedMergedObjectStore() throws IOException {
+        val dt = LocalDate.of(2018, 9, 5);
+        val store = mock(MergedObjectStore.class);
+        try (val cache = MergedObjectCache.createTemporary(1000)) {
+            val cachedStore = new CachedMergedObjectStore(store, cache, 1);
+            when(store.getMergedObjectETag(dt, 1, 10)).thenReturn("etag1");
+            val content = this.writeTempFile(10);
+            Files.write(content.toPath(), new byte[] { 1, 2, 3 });
+            cachedStore.putMergedObjectFile(dt, 1, 10, content);
+            verify(store).putMergedObjectFile(dt, 1, 10, content);
+
+            val file = cachedStore.getMergedObjectFile(dt, 1, 10);
+            assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(file.toPath()));
+            verify(store, never()).getMergedObjectFile(dt, 1, 10);
+
+            // other tables' objects are not shared
+            val otherStore = new CachedMergedObjectStore(store, cache, 2);
+            otherStore.getMergedObjectFile(dt, 1, 10);
+            verify(store).getMergedObjectFile(dt, 1, 10);
+        }
+    }
+
+    @Test
+    public void testOverwrittenObjectIsNotServedFromCache() throws IOException {
+        val dt = LocalDate.of(2018, 9, 5);
+        val store = mock(MergedObjectStore.class);
+        try (val cache = MergedObjectCache.createTemporary(1000)) {
+            val cachedStore = new CachedMergedObjectStore(store, cache, 1);
+            when(store.getMergedObjectETag(dt, 1, 10)).thenReturn("etag1");
+            val content = this.writeTempFile(10);
+            Files.write(content.toPath(), new byte[] { 1, 2, 3 });
+            cachedStore.putMergedObjectFile(dt, 1, 10, content);
+
+            // e.g. rebuilt by another process
+            when(store.getMergedObjectETag(dt, 1, 10)).thenReturn("etag2");
+            val rebuilt = this.writeTempFile(10);
+            Files.write(rebuilt.toPath(), new byte[] { 4, 5, 6 });
+            when(store.getMergedObjectFile(dt, 1, 10)).thenReturn(rebuilt);
+
+            val file = cachedStore.getMergedObjectFile(dt, 1, 10);
+            assertArrayEquals(new byte[] { 4, 5, 6 }, Files.readAllBytes(file.toPath()));
+            assertEquals(0, cache.size());
+            assertEquals(0, cache.getTotalSize());
+        }
+    }
+}
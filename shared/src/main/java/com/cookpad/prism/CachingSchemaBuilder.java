@@ -0,0 +1,31 @@
+package com.cookpad.prism;
+
+import java.time.Duration;
+import java.util.List;
+
+import com.cookpad.prism.record.Schema;
+import com.cookpad.prism.dao.PrismTable;
+import com.cookpad.prism.dao.StreamColumn;
+
+import lombok.Data;
+
+// Reuses built schemas while the table and its columns are unchanged.
+// The key is the whole metadata, so any change of it builds a new schema.
+public class CachingSchemaBuilder extends SchemaBuilder {
+    private final ExpiringCache<Key, Schema> cache;
+
+    public CachingSchemaBuilder(Duration ttl) {
+        this.cache = new ExpiringCache<>(ttl);
+    }
+
+    @Override
+    public Schema build(PrismTable table, List<StreamColumn> columns) throws BadColumnsError {
+        return this.cache.get(new Key(table, List.copyOf(columns)), (key) -> super.build(key.getTable(), key.getColumns()));
+    }
+
+    @Data
+    private static class Key {
+        private final PrismTable table;
+        private final List<StreamColumn> columns;
+    }
+}
@@ -0,0 +1,72 @@
+package com.cookpad.prism;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.Data;
+
+// In-process cache whose entries expire after ttl.
+// null values are not cached so that missing entries are looked up every time.
+public class ExpiringCache<K, V> {
+    private final Duration ttl;
+    private final Clock clock;
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private volatile Instant nextSweep;
+
+    public ExpiringCache(Duration ttl) {
+        this(ttl, Clock.systemUTC());
+    }
+
+    public ExpiringCache(Duration ttl, Clock clock) {
+        this.ttl = ttl;
+        this.clock = clock;
+        this.nextSweep = clock.instant().plus(ttl);
+    }
+
+    public <E extends Exception> V get(K key, Loader<K, V, E> loader) throws E {
+        if (this.ttl.isZero() || this.ttl.isNegative()) {
+            return loader.load(key);
+        }
+        Instant now = this.clock.instant();
+        this.sweep(now);
+        Entry<V> entry = this.entries.get(key);
+        if (entry != null && now.isBefore(entry.getExpireTime())) {
+            return entry.getValue();
+        }
+        V value = loader.load(key);
+        if (value != null) {
+            this.entries.put(key, new Entry<>(value, now.plus(this.ttl)));
+        }
+        return value;
+    }
+
+    public void invalidate(K key) {
+        this.entries.remove(key);
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    // Drops expired entries occasionally; keys may change as metadata is updated
+    private void sweep(Instant now) {
+        if (now.isBefore(this.nextSweep)) {
+            return;
+        }
+        this.nextSweep = now.plus(this.ttl);
+        this.entries.values().removeIf((entry) -> !now.isBefore(entry.getExpireTime()));
+    }
+
+    @FunctionalInterface
+    public static interface Loader<K, V, E extends Exception> {
+        public V load(K key) throws E;
+    }
+
+    @Data
+    private static class Entry<V> {
+        private final V value;
+        private final Instant expireTime;
+    }
+}
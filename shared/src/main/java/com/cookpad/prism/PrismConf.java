@@ -15,4 +15,17 @@ import lombok.ToString;
 public class PrismConf {
     String bucketName;
     String prefix;
+    S3Transfer s3Transfer = new S3Transfer();
+    // seconds to reuse table and stream metadata; 0 to query them every time
+    long metadataCacheTtl;
+
+    @NoArgsConstructor
+    @Getter
+    @Setter
+    @ToString
+    public static class S3Transfer {
+        long partSize = 16 * 1024 * 1024;
+        // 1 to transfer each object by a single request
+        int concurrency = 1;
+    }
 }
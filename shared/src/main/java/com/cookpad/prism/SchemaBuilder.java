@@ -8,13 +8,16 @@ import com.cookpad.prism.record.SizedValueType;
 import com.cookpad.prism.record.UnsizedValueType;
 import com.cookpad.prism.record.ValueKind;
 import com.cookpad.prism.record.ValueType;
+import com.cookpad.prism.record.WriterProfiles;
 import com.cookpad.prism.record.Schema.Builder.BadSchemaError;
 import com.cookpad.prism.dao.PrismTable;
 import com.cookpad.prism.dao.StreamColumn;
 
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 
 @RequiredArgsConstructor
+@Slf4j
 public class SchemaBuilder {
     private ValueKind getValueKindFromTypeName(String typeName) {
         ValueKind valueKind = ValueKind.valueOf(typeName.toUpperCase());
@@ -37,6 +40,7 @@ public class SchemaBuilder {
         }
         try {
             Schema.Builder builder = new Schema.Builder(table.getLogicalSchemaName(), table.getLogicalTableName());
+            builder.withWriterProfiles(this.parseWriterProfiles(table));
             for (StreamColumn column: columns) {
                 if (column.getType().toUpperCase().equals("UNKNOWN")) {
                     continue;
@@ -64,6 +68,16 @@ public class SchemaBuilder {
         }
     }
 
+    // A broken profile must not stop conversion or merge, so fall back to the defaults
+    private WriterProfiles parseWriterProfiles(PrismTable table) {
+        try {
+            return WriterProfiles.parse(table.getWriterProfiles());
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignored invalid writer profiles of {}: {}", table.getLogicalFullName(), e.getMessage());
+            return WriterProfiles.DEFAULT;
+        }
+    }
+
     public boolean isCompatible(StreamColumn a, StreamColumn b) {
         return (
             Objects.equals(a.getSourceName(),   b.getSourceName()) &&
@@ -6,9 +6,12 @@ import java.util.List;
 import org.apache.ibatis.annotations.Param;
 
 public interface PrismMergeJobMapper {
-    void enqueue(@Param("partitionId") long partitionId, @Param("scheduleTime") LocalDateTime scheduleTime);
-    void retry(@Param("partitionId") long partitionId, @Param("scheduleTime") LocalDateTime scheduleTime);
-    void delete(@Param("id") long id);
-    PrismMergeJob dequeue(@Param("now") LocalDateTime now);
+    void enqueue(@Param("partitionId") long partitionId, @Param("scheduleTime") LocalDateTime scheduleTime, @Param("now") LocalDateTime now);
+    void enqueueAll(@Param("partitionIds") List<Long> partitionIds, @Param("scheduleTime") LocalDateTime scheduleTime, @Param("now") LocalDateTime now);
+    void retry(@Param("partitionId") long partitionId, @Param("scheduleTime") LocalDateTime scheduleTime, @Param("preferredWorker") String preferredWorker, @Param("preferredUntil") LocalDateTime preferredUntil, @Param("now") LocalDateTime now);
+    void delete(@Param("id") long id, @Param("now") LocalDateTime now);
+    List<PrismMergeJob> dequeue(@Param("now") LocalDateTime now, @Param("limit") int limit, @Param("worker") String worker);
+    LocalDateTime findNextScheduleTime();
+    int heartbeat(@Param("id") long id, @Param("now") LocalDateTime now);
     List<PrismMergeJob> findTimedoutJobs(@Param("timedoutPeriod") LocalDateTime timedoutPeriod, @Param("limit") int limit);
 }
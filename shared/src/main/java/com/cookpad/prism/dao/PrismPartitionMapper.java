@@ -8,6 +8,7 @@ import org.apache.ibatis.annotations.Param;
 
 public interface PrismPartitionMapper {
     PrismPartition createPartitionIfNotExists(@Param("tableId") int tableId, @Param("partitionDate") LocalDate partitionDate);
+    List<PrismPartition> createPartitionsIfNotExist(@Param("tableId") int tableId, @Param("partitionDates") List<LocalDate> partitionDates);
     PrismPartition find(@Param("id") long id);
     PrismPartition findByTableIdAndDate(@Param("tableId") int tableId, @Param("partitionDate") LocalDate partitionDate);
     void closePartitions(@Param("now") LocalDateTime now);
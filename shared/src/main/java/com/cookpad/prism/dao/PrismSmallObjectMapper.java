@@ -10,7 +10,8 @@ import org.springframework.transaction.annotation.Transactional;
 public interface PrismSmallObjectMapper {
     PrismSmallObject findByParams(@Param("stagingObjectId") long stagingObjectId, @Param("partitionId") long partitionId);
     PrismSmallObject createByParams(@Param("stagingObjectId") long stagingObjectId, @Param("partitionId") long partitionId, @Param("uploadStartTime") LocalDateTime uploadStartTime, @Param("contentLength") long contentLength);
-    List<PrismSmallObject> findNewObjects(@Param("partitionId") long partitionId, @Param("lowerBound") long lowerBound, @Param("limit") int limit);
+    List<PrismSmallObject> findOrCreateAll(@Param("stagingObjectId") long stagingObjectId, @Param("objects") List<PrismSmallObject> objects);
+    List<PrismSmallObject> findNewObjects(@Param("partitionId") long partitionId, @Param("lowerBound") long lowerBound, @Param("maxContentLength") long maxContentLength, @Param("limit") int limit);
     List<PrismSmallObject> findAllObjectsInRange(@Param("partitionId") long partitionId, @Param("lowerBound") long lowerBound, @Param("upperBound") long upperBound);
 
     @Transactional(propagation = Propagation.NESTED)
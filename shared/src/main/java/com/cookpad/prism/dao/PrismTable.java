@@ -17,6 +17,12 @@ public class PrismTable {
     private String logicalTableName;
     private LocalDateTime createTime;
     private int mergeInterval;
+    // JSON of WriterProfiles; null for the defaults
+    private String writerProfiles;
+
+    public PrismTable(int id, String physicalSchemaName, String physicalTableName, String logicalSchemaName, String logicalTableName, LocalDateTime createTime, int mergeInterval) {
+        this(id, physicalSchemaName, physicalTableName, logicalSchemaName, logicalTableName, createTime, mergeInterval, null);
+    }
 
     public String getPhysicalSchemaName() {
         if (this.physicalSchemaName != null) {
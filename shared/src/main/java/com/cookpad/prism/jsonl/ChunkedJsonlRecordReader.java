@@ -0,0 +1,142 @@
+package com.cookpad.prism.jsonl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.cookpad.prism.record.Schema;
+import com.cookpad.prism.record.partitioned.DateAttachedRecord;
+import com.cookpad.prism.record.partitioned.DateAttachedRecordReader;
+
+// Splits newline-delimited JSON into line-aligned chunks and parses them on the executor.
+// Records are returned in the input order; at most maxChunksInFlight chunks are read ahead.
+// Unlike JsonlRecordReader, a JSON value must not span multiple lines.
+public class ChunkedJsonlRecordReader implements DateAttachedRecordReader {
+    private static final byte[] EMPTY = new byte[0];
+
+    final private Schema schema;
+    final private InputStream in;
+    final private ExecutorService executor;
+    final private int chunkSize;
+    final private int maxChunksInFlight;
+    final private ArrayDeque<Future<List<DateAttachedRecord>>> chunks = new ArrayDeque<>();
+    // Bytes after the last newline of the previous chunk
+    private byte[] pending = EMPTY;
+    private boolean eof = false;
+    private Iterator<DateAttachedRecord> current = Collections.emptyIterator();
+
+    public ChunkedJsonlRecordReader(Schema schema, InputStream in, ExecutorService executor, int chunkSize, int maxChunksInFlight) {
+        this.schema = schema;
+        this.in = in;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = maxChunksInFlight;
+    }
+
+    @Override
+    public DateAttachedRecord read() throws IOException {
+        while (!this.current.hasNext()) {
+            this.fill();
+            Future<List<DateAttachedRecord>> chunk = this.chunks.poll();
+            if (chunk == null) {
+                return null;
+            }
+            this.current = this.await(chunk).iterator();
+        }
+        return this.current.next();
+    }
+
+    private void fill() throws IOException {
+        while (!this.eof && this.chunks.size() < this.maxChunksInFlight) {
+            this.readChunk();
+        }
+    }
+
+    // Reads about chunkSize bytes up to the last newline and submits them.
+    // The buffer grows when a single line is longer than chunkSize.
+    private void readChunk() throws IOException {
+        int len = this.pending.length;
+        byte[] buf = Arrays.copyOf(this.pending, Math.max(this.chunkSize, len * 2));
+        int searchFrom = len;
+        while (true) {
+            while (len < buf.length) {
+                int n = this.in.read(buf, len, buf.length - len);
+                if (n < 0) {
+                    this.eof = true;
+                    break;
+                }
+                len += n;
+            }
+            for (int i = len - 1; i >= searchFrom; i--) {
+                if (buf[i] == '\n') {
+                    this.pending = Arrays.copyOfRange(buf, i + 1, len);
+                    this.submit(buf, i + 1);
+                    return;
+                }
+            }
+            if (this.eof) {
+                this.pending = EMPTY;
+                if (len > 0) {
+                    this.submit(buf, len);
+                }
+                return;
+            }
+            searchFrom = len;
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+    }
+
+    private void submit(byte[] bytes, int length) {
+        this.chunks.add(this.executor.submit(() -> this.parseChunk(bytes, length)));
+    }
+
+    private List<DateAttachedRecord> parseChunk(byte[] bytes, int length) throws IOException {
+        List<DateAttachedRecord> records = new ArrayList<>();
+        try (
+            JsonlReader reader = new JsonlReader(bytes, 0, length);
+            JsonlRecordReader recordReader = new JsonlRecordReader(this.schema, reader);
+        ) {
+            DateAttachedRecord record;
+            while ((record = recordReader.read()) != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    private List<DateAttachedRecord> await(Future<List<DateAttachedRecord>> chunk) throws IOException {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing JSONL chunks");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<List<DateAttachedRecord>> chunk : this.chunks) {
+            chunk.cancel(true);
+        }
+        this.chunks.clear();
+        this.in.close();
+    }
+}
@@ -1,31 +1,56 @@
 package com.cookpad.prism.jsonl;
 
 import java.io.IOException;
-import java.io.LineNumberReader;
+import java.io.InputStream;
+import java.io.Reader;
 
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.MappingJsonFactory;
+import com.fasterxml.jackson.core.JsonToken;
 
+import lombok.Getter;
+
+// Reads concatenated (typically newline-delimited) JSON values with a single streaming parser
 public class JsonlReader implements AutoCloseable {
-    private static final MappingJsonFactory FACTORY = new MappingJsonFactory();
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    @Getter
+    final private JsonParser parser;
+    // Set only when the whole input is on memory; byte offsets of the parser are relative to sourceOffset
+    @Getter
+    final private byte[] source;
+    @Getter
+    final private int sourceOffset;
+
+    public JsonlReader(Reader inner) throws IOException {
+        this.parser = FACTORY.createParser(inner);
+        this.source = null;
+        this.sourceOffset = 0;
+    }
+
+    // Prefer this for UTF-8 input; the parser decodes bytes by itself
+    public JsonlReader(InputStream inner) throws IOException {
+        this.parser = FACTORY.createParser(inner);
+        this.source = null;
+        this.sourceOffset = 0;
+    }
 
-    final private LineNumberReader inner;
-    public JsonlReader(LineNumberReader inner) {
-        this.inner = inner;
+    // UTF-8 input on memory; string values can be taken from the source bytes as is
+    public JsonlReader(byte[] source, int offset, int length) throws IOException {
+        this.parser = FACTORY.createParser(source, offset, length);
+        this.source = source;
+        this.sourceOffset = offset;
     }
 
-    public JsonNode read() throws IOException {
-        String line = this.inner.readLine();
-        if (line == null) {
-            return null;
-        }
-        JsonParser parser = FACTORY.createParser(line);
-        return parser.readValueAs(JsonNode.class);
+    // Moves the parser to the first token of the next value.
+    // Returns false at the end of input.
+    public boolean next() throws IOException {
+        JsonToken token = this.parser.nextToken();
+        return token != null;
     }
 
     @Override
     public void close() throws IOException {
-        this.inner.close();
+        this.parser.close();
     }
 }
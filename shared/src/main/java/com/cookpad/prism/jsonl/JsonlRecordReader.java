@@ -3,48 +3,42 @@ package com.cookpad.prism.jsonl;
 import java.io.IOException;
 import java.time.Instant;
 import java.time.LocalDate;
-import java.time.OffsetDateTime;
-import java.time.ZoneOffset;
-import java.util.AbstractMap;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.stream.Collectors;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
 import com.cookpad.prism.jsonl.converters.Converter;
 import com.cookpad.prism.jsonl.converters.DefaultConverter;
 import com.cookpad.prism.jsonl.converters.NonNullConverter;
 import com.cookpad.prism.jsonl.converters.NullableConverter;
 import com.cookpad.prism.jsonl.converters.PrimitiveConverter;
+import com.cookpad.prism.jsonl.converters.TimestampParser;
+import com.cookpad.prism.record.ColumnarRecord;
 import com.cookpad.prism.record.Schema;
 import com.cookpad.prism.record.ValueKind;
-import com.cookpad.prism.record.ValueListRecord;
 import com.cookpad.prism.record.Schema.Column;
 import com.cookpad.prism.record.partitioned.DateAttachedRecord;
-import com.cookpad.prism.record.values.Value;
+import com.cookpad.prism.record.partitioned.DateAttachedRecordReader;
 import com.cookpad.prism.record.values.PrimitiveValue.LongValue;
 
 import static com.cookpad.prism.jsonl.converters.PrimitiveConverter.*;
 
-public class JsonlRecordReader implements AutoCloseable {
+public class JsonlRecordReader implements DateAttachedRecordReader {
     private static final StringConverter STRING_CONVERTER = new StringConverter();
     private static final BooleanConverter BOOLEAN_CONVERTER = new BooleanConverter();
     private static final IntegerConverter INTEGER_CONVERTER = new IntegerConverter();
     private static final BigintConverter BIGINT_CONVERTER = new BigintConverter();
-    private static final TimestampConverter TIMESTAMP_CONVERTER = new TimestampConverter();
     private static final DoubleConverter DOUBLE_CONVERTER = new DoubleConverter();
     private static final FloatConverter FLOAT_CONVERTER = new FloatConverter();
-    private static final Map<ValueKind, PrimitiveConverter<?>> CONVERTERS_BY_TYPE;
+    private static final Map<ValueKind, PrimitiveConverter> CONVERTERS_BY_TYPE;
     static {
         CONVERTERS_BY_TYPE = new HashMap<>();
         CONVERTERS_BY_TYPE.put(ValueKind.STRING, STRING_CONVERTER);
         CONVERTERS_BY_TYPE.put(ValueKind.BOOLEAN, BOOLEAN_CONVERTER);
         CONVERTERS_BY_TYPE.put(ValueKind.INTEGER, INTEGER_CONVERTER);
         CONVERTERS_BY_TYPE.put(ValueKind.BIGINT, BIGINT_CONVERTER);
-        CONVERTERS_BY_TYPE.put(ValueKind.TIMESTAMP, TIMESTAMP_CONVERTER);
         CONVERTERS_BY_TYPE.put(ValueKind.DOUBLE, DOUBLE_CONVERTER);
         CONVERTERS_BY_TYPE.put(ValueKind.REAL, FLOAT_CONVERTER);
         CONVERTERS_BY_TYPE.put(ValueKind.DATE, STRING_CONVERTER);
@@ -53,71 +47,126 @@ public class JsonlRecordReader implements AutoCloseable {
 
     final private Schema schema;
     final private JsonlReader inner;
-    final private List<Map.Entry<Column, Converter>> columns;
+    final private ColumnarRecord.Layout layout;
+    final private Converter[] converters;
+    final private Map<String, Column> columnsByName = new HashMap<>();
+    // Per reader because it caches the last parsed value
+    final private TimestampConverter timestampConverter = new TimestampConverter();
 
-    final private OffsetDateTime DEFAULT_TIMESTAMP = OffsetDateTime.ofInstant(Instant.EPOCH, ZoneOffset.UTC);
+    final private LocalDate DEFAULT_PARTITION_DATE = LocalDate.ofEpochDay(0);
 
     public JsonlRecordReader(Schema schema, JsonlReader inner) {
         this.schema = schema;
         this.inner = inner;
+        this.layout = new ColumnarRecord.Layout(schema);
         Column tsCol = schema.getTimestampColumn();
-        this.columns = schema.getColumns().stream().map((col) -> {
-            PrimitiveConverter<?> primitive = CONVERTERS_BY_TYPE.get(col.getValueType().getValueKind());
+        // Slice string values from the source bytes if the input is on memory
+        StringConverter stringConverter = inner.getSource() == null ? STRING_CONVERTER : new StringConverter(inner.getSource(), inner.getSourceOffset());
+        this.converters = schema.getColumns().stream().map((col) -> {
+            PrimitiveConverter primitive = this.primitiveConverterFor(col.getValueType().getValueKind(), stringConverter);
             if (col.isNullable()) {
-                return new AbstractMap.SimpleEntry<Column, Converter>(col, new NullableConverter(primitive));
+                return new NullableConverter(primitive);
             } else {
                 if (col == tsCol) {
-                    LongValue defaultValue = new LongValue(DEFAULT_TIMESTAMP.toInstant().toEpochMilli());
-                    return new AbstractMap.SimpleEntry<Column, Converter>(col, new DefaultConverter(primitive, defaultValue));
+                    LongValue defaultValue = new LongValue(Instant.EPOCH.toEpochMilli());
+                    return new DefaultConverter(primitive, defaultValue);
                 } else {
-                    return new AbstractMap.SimpleEntry<Column, Converter>(col, new NonNullConverter(primitive));
+                    return new NonNullConverter(primitive);
                 }
             }
-        }).collect(Collectors.toList());
+        }).toArray(Converter[]::new);
+        for (Column col : schema.getColumns()) {
+            this.columnsByName.putIfAbsent(col.getName(), col);
+        }
     }
 
-    private Optional<OffsetDateTime> tryToReadTimetamp(JsonNode tsNode) {
-        if (tsNode == null || tsNode.isNull()) {
-            return Optional.empty();
+    private PrimitiveConverter primitiveConverterFor(ValueKind kind, StringConverter stringConverter) {
+        switch (kind) {
+        case TIMESTAMP:
+            return this.timestampConverter;
+        case STRING:
+        case DATE:
+            return stringConverter;
+        default:
+            return CONVERTERS_BY_TYPE.get(kind);
         }
-        return Optional.of(TIMESTAMP_CONVERTER.toOffsetDateTime(tsNode));
     }
 
+    private boolean isTimestampSource(Column col) {
+        return col.getIndex() == Schema.TIMESTAMP_INDEX || col.isSecondaryTimestamp();
+    }
+
+    private void convertValue(Column col, JsonParser parser, ColumnarRecord record, LocalDate[] dates) throws IOException {
+        int index = col.getIndex();
+        if (this.isTimestampSource(col)) {
+            // Parse the timestamp only once and keep its date to decide the partition date
+            TimestampParser timestampParser = this.timestampConverter.getTimestampParser();
+            timestampParser.parse(parser);
+            dates[index] = timestampParser.getLocalDate();
+            if (col.getValueType().getValueKind() == ValueKind.TIMESTAMP) {
+                record.setLong(index, timestampParser.getEpochMilli());
+                return;
+            }
+        }
+        this.converters[index].convertFrom(col, parser, record);
+    }
+
+    @Override
     public DateAttachedRecord read() throws IOException {
-        JsonNode objJsonNode = this.inner.read();
-        if (objJsonNode == null) {
+        if (!this.inner.next()) {
             return null;
         }
+        JsonParser parser = this.inner.getParser();
+        int size = this.converters.length;
+        // All fields are null (= null or missing) at first
+        ColumnarRecord record = new ColumnarRecord(this.layout);
+        LocalDate[] dates = new LocalDate[size];
 
-        List<JsonNode> nodes = this.columns.stream().map((pair) -> {
-            Column col = pair.getKey();
-            JsonNode node = objJsonNode.get(col.getName());
-            return node;
-        }).collect(Collectors.toList());
+        if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                Column col = this.columnsByName.get(parser.getCurrentName());
+                JsonToken token = parser.nextToken();
+                if (col == null) {
+                    // Unknown field; skip the whole subtree if any
+                    parser.skipChildren();
+                    continue;
+                }
+                int index = col.getIndex();
+                if (token == JsonToken.VALUE_NULL) {
+                    record.setNull(index);
+                    dates[index] = null;
+                    continue;
+                }
+                this.convertValue(col, parser, record, dates);
+            }
+        } else {
+            // Not an object, so no columns are there
+            parser.skipChildren();
+        }
 
-        JsonNode tsNode = nodes.get(Schema.TIMESTAMP_INDEX);
-        if (tsNode == null || tsNode.isNull()) {
+        LocalDate dt = dates[Schema.TIMESTAMP_INDEX];
+        if (record.isNull(Schema.TIMESTAMP_INDEX)) {
             // Fill it with seconday timestamp column's value
             for (Column column : this.schema.getSecondaryTimestampColumns()) {
-                JsonNode stsNode = nodes.get(column.getIndex());
-                if (stsNode != null && !stsNode.isNull()) {
-                    tsNode = stsNode;
+                if (!record.isNull(column.getIndex())) {
+                    record.copyField(column.getIndex(), Schema.TIMESTAMP_INDEX);
+                    dt = dates[column.getIndex()];
                     break;
                 }
             }
         }
-        OffsetDateTime timestamp = tryToReadTimetamp(tsNode).orElse(DEFAULT_TIMESTAMP);
-        nodes.set(Schema.TIMESTAMP_INDEX, tsNode);
-
-        List<Value> values = this.columns.stream().map((pair) -> {
-            Column col = pair.getKey();
-            Converter conv = pair.getValue();
-            JsonNode node = nodes.get(col.getIndex());
-            return conv.convertFrom(col, node);
-        }).collect(Collectors.toList());
-
-        LocalDate dt = timestamp.toLocalDate();
-        return new DateAttachedRecord(new ValueListRecord(values), dt);
+        if (dt == null) {
+            dt = DEFAULT_PARTITION_DATE;
+        }
+
+        for (Column col : this.schema.getColumns()) {
+            int index = col.getIndex();
+            if (record.isNull(index)) {
+                this.converters[index].convertNull(col, record);
+            }
+        }
+
+        return new DateAttachedRecord(record, dt);
     }
 
     @Override
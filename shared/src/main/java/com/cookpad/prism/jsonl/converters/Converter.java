@@ -1,10 +1,15 @@
 package com.cookpad.prism.jsonl.converters;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
 
+import com.fasterxml.jackson.core.JsonParser;
+
+import com.cookpad.prism.record.ColumnarRecord;
 import com.cookpad.prism.record.Schema.Column;
-import com.cookpad.prism.record.values.Value;
 
 public interface Converter {
-    public Value convertFrom(Column column, JsonNode node) throws UnexpectedValueType;
+    // parser points to the value token (may be VALUE_NULL)
+    public void convertFrom(Column column, JsonParser parser, ColumnarRecord record) throws IOException, UnexpectedValueType;
+    // for null or missing values
+    public void convertNull(Column column, ColumnarRecord record) throws UnexpectedValueType;
 }
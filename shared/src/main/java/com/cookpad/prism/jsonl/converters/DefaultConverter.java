@@ -1,27 +1,34 @@
 package com.cookpad.prism.jsonl.converters;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import com.cookpad.prism.record.ColumnarRecord;
 import com.cookpad.prism.record.Schema.Column;
-import com.cookpad.prism.record.values.NonNullValue;
 import com.cookpad.prism.record.values.PrimitiveValue;
-import com.cookpad.prism.record.values.Value;
 
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 
 @RequiredArgsConstructor
 public class DefaultConverter implements Converter {
-    final private PrimitiveConverter<?> primitiveConverter;
+    final private PrimitiveConverter primitiveConverter;
     @NonNull
     final private PrimitiveValue<?> defaultValue;
 
     @Override
-    public Value convertFrom(Column column, JsonNode node) throws UnexpectedValueType {
-        if (node == null || node.isNull()) {
-            return new NonNullValue(column, this.defaultValue);
+    public void convertFrom(Column column, JsonParser parser, ColumnarRecord record) throws IOException, UnexpectedValueType {
+        if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+            this.convertNull(column, record);
+            return;
         }
-        PrimitiveValue<?> value = this.primitiveConverter.convertFrom(node);
-        return new NonNullValue(column, value);
+        this.primitiveConverter.convertInto(parser, record, column.getIndex());
+    }
+
+    @Override
+    public void convertNull(Column column, ColumnarRecord record) throws UnexpectedValueType {
+        record.setPrimitiveValue(column.getIndex(), this.defaultValue);
     }
 }
@@ -1,113 +1,174 @@
 package com.cookpad.prism.jsonl.converters;
 
-import java.time.Instant;
-import java.time.OffsetDateTime;
-import java.time.ZoneOffset;
-import java.time.format.DateTimeParseException;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
 import org.apache.parquet.io.api.Binary;
-import com.cookpad.prism.record.values.PrimitiveValue;
-import static com.cookpad.prism.record.values.PrimitiveValue.*;
+import com.cookpad.prism.record.ColumnarRecord;
 
-public interface PrimitiveConverter<T extends PrimitiveValue<?>> {
-    public T convertFrom(JsonNode node) throws UnexpectedValueType;
+import lombok.Getter;
+
+// All converters take a parser which points to a non-null value token
+// and set the converted value to the field of the record at index
+public interface PrimitiveConverter {
+    public void convertInto(JsonParser parser, ColumnarRecord record, int index) throws IOException, UnexpectedValueType;
+
+    public static class StringConverter implements PrimitiveConverter {
+        final static JsonFactory FACTORY = new JsonFactory();
+        // The whole input of the parser if available; values are sliced from it without transcoding
+        final private byte[] source;
+        final private int sourceOffset;
+
+        public StringConverter() {
+            this(null, 0);
+        }
+
+        public StringConverter(byte[] source, int sourceOffset) {
+            this.source = source;
+            this.sourceOffset = sourceOffset;
+        }
 
-    public static class StringConverter implements PrimitiveConverter<BinaryValue> {
-        final static ObjectMapper MAPPER = new ObjectMapper();
         @Override
-        public BinaryValue convertFrom(JsonNode node) throws UnexpectedValueType {
-            String str;
-            if (node.isTextual()) {
-                str = node.asText();
+        public void convertInto(JsonParser parser, ColumnarRecord record, int index) throws IOException, UnexpectedValueType {
+            JsonToken token = parser.getCurrentToken();
+            byte[] bytes;
+            if (token == JsonToken.VALUE_STRING) {
+                bytes = this.toUtf8(parser);
             } else {
-                try {
-                    str = MAPPER.writeValueAsString(node);
-                } catch (JsonProcessingException e) {
-                    throw new UnexpectedValueType("JSON");
+                // Serialize other values as compact JSON, whether or not the source bytes are available,
+                // so that the output does not depend on how the input is read
+                StringWriter writer = new StringWriter();
+                try (JsonGenerator generator = FACTORY.createGenerator(writer)) {
+                    generator.copyCurrentStructure(parser);
+                }
+                bytes = writer.toString().getBytes(StandardCharsets.UTF_8);
+            }
+            record.setBinary(index, Binary.fromConstantByteArray(bytes));
+        }
+
+        private byte[] toUtf8(JsonParser parser) throws IOException {
+            if (this.source != null) {
+                // The string token starts with a quote; the raw bytes are the value itself unless escaped
+                int start = this.sourceOffset + (int)parser.getTokenLocation().getByteOffset() + 1;
+                for (int i = start; i < this.source.length; i++) {
+                    byte b = this.source[i];
+                    if (b == '"') {
+                        return Arrays.copyOfRange(this.source, start, i);
+                    }
+                    if (b == '\\') {
+                        break;
+                    }
+                }
+            }
+            return encodeUtf8(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        }
+
+        // Same as String#getBytes(UTF_8) without creating a String; lone surrogates are replaced with '?'
+        static byte[] encodeUtf8(char[] chars, int offset, int length) {
+            byte[] bytes = new byte[length * 3];
+            int pos = 0;
+            int end = offset + length;
+            for (int i = offset; i < end; i++) {
+                char c = chars[i];
+                if (c < 0x80) {
+                    bytes[pos++] = (byte)c;
+                } else if (c < 0x800) {
+                    bytes[pos++] = (byte)(0xc0 | (c >> 6));
+                    bytes[pos++] = (byte)(0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars[i + 1])) {
+                    int cp = Character.toCodePoint(c, chars[++i]);
+                    bytes[pos++] = (byte)(0xf0 | (cp >> 18));
+                    bytes[pos++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+                    bytes[pos++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+                    bytes[pos++] = (byte)(0x80 | (cp & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    bytes[pos++] = '?';
+                } else {
+                    bytes[pos++] = (byte)(0xe0 | (c >> 12));
+                    bytes[pos++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                    bytes[pos++] = (byte)(0x80 | (c & 0x3f));
                 }
             }
-            return new BinaryValue(Binary.fromString(str));
+            return Arrays.copyOf(bytes, pos);
         }
     }
 
-    public static class BooleanConverter implements PrimitiveConverter<BooleanValue> {
+    public static class BooleanConverter implements PrimitiveConverter {
         @Override
-        public BooleanValue convertFrom(JsonNode node) throws UnexpectedValueType {
-            if (!node.isBoolean()) {
+        public void convertInto(JsonParser parser, ColumnarRecord record, int index) throws IOException, UnexpectedValueType {
+            if (!parser.getCurrentToken().isBoolean()) {
                 throw new UnexpectedValueType("booelan");
             }
-            return new BooleanValue(node.asBoolean());
+            record.setBoolean(index, parser.getBooleanValue());
         }
     }
 
-    public static class IntegerConverter implements PrimitiveConverter<IntegerValue> {
+    public static class IntegerConverter implements PrimitiveConverter {
         @Override
-        public IntegerValue convertFrom(JsonNode node) throws UnexpectedValueType {
-            if (!node.isIntegralNumber()) {
+        public void convertInto(JsonParser parser, ColumnarRecord record, int index) throws IOException, UnexpectedValueType {
+            if (parser.getCurrentToken() != JsonToken.VALUE_NUMBER_INT) {
                 throw new UnexpectedValueType("int");
             }
-            return new IntegerValue(node.asInt());
+            if (parser.getNumberType() == JsonParser.NumberType.INT) {
+                record.setInt(index, parser.getIntValue());
+            } else {
+                // truncate out of range values
+                record.setInt(index, parser.getNumberValue().intValue());
+            }
         }
     }
 
-    public static class BigintConverter implements PrimitiveConverter<LongValue> {
+    public static class BigintConverter implements PrimitiveConverter {
         @Override
-        public LongValue convertFrom(JsonNode node) throws UnexpectedValueType {
-            if (!node.isIntegralNumber()) {
+        public void convertInto(JsonParser parser, ColumnarRecord record, int index) throws IOException, UnexpectedValueType {
+            if (parser.getCurrentToken() != JsonToken.VALUE_NUMBER_INT) {
                 throw new UnexpectedValueType("long");
             }
-            return new LongValue(node.asLong());
+            if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+                // truncate out of range values
+                record.setLong(index, parser.getNumberValue().longValue());
+            } else {
+                record.setLong(index, parser.getLongValue());
+            }
         }
     }
 
-    public static class TimestampConverter implements PrimitiveConverter<LongValue> {
-        public OffsetDateTime toOffsetDateTime(JsonNode value) throws UnexpectedValueType {
-            if (!value.isTextual()) {
-                throw new UnexpectedValueType("ISO8601 string");
-            }
-            String iso8601Text = value.asText();
-            OffsetDateTime odt;
-            try {
-                odt = OffsetDateTime.parse(iso8601Text);
-            } catch(DateTimeParseException ex) {
-                throw new UnexpectedValueType("ISO8601 string");
-            }
-            if (odt.toInstant().compareTo(Instant.EPOCH) < 0) {
-                ZoneOffset offset = odt.getOffset();
-                odt = OffsetDateTime.ofInstant(Instant.EPOCH, offset);
-            }
-            return odt;
-        }
+    // Keeps the state of the last parsed value; use an instance per reader
+    public static class TimestampConverter implements PrimitiveConverter {
+        @Getter
+        final private TimestampParser timestampParser = new TimestampParser();
 
         @Override
-        public LongValue convertFrom(JsonNode value) throws UnexpectedValueType {
-            OffsetDateTime odt = this.toOffsetDateTime(value);
-            return new LongValue(odt.toInstant().toEpochMilli());
+        public void convertInto(JsonParser parser, ColumnarRecord record, int index) throws IOException, UnexpectedValueType {
+            this.timestampParser.parse(parser);
+            record.setLong(index, this.timestampParser.getEpochMilli());
         }
     }
 
-    public static class DoubleConverter implements PrimitiveConverter<DoubleValue> {
+    public static class DoubleConverter implements PrimitiveConverter {
         @Override
-        public DoubleValue convertFrom(JsonNode node) throws UnexpectedValueType {
-            if (!node.isNumber()) {
+        public void convertInto(JsonParser parser, ColumnarRecord record, int index) throws IOException, UnexpectedValueType {
+            if (!parser.getCurrentToken().isNumeric()) {
                 throw new UnexpectedValueType("double");
             }
-            return new DoubleValue(node.asDouble());
+            record.setDouble(index, parser.getDoubleValue());
         }
     }
 
-    public static class FloatConverter implements PrimitiveConverter<FloatValue> {
+    public static class FloatConverter implements PrimitiveConverter {
         @Override
-        public FloatValue convertFrom(JsonNode node) throws UnexpectedValueType {
-            if (!node.isNumber()) {
-                throw new UnexpectedValueType(node.asText() + "is not a float value.");
+        public void convertInto(JsonParser parser, ColumnarRecord record, int index) throws IOException, UnexpectedValueType {
+            if (!parser.getCurrentToken().isNumeric()) {
+                throw new UnexpectedValueType(parser.getText() + "is not a float value.");
             }
-            // node.isNumber() is always true here
-            return new FloatValue(node.floatValue());
+            record.setFloat(index, parser.getFloatValue());
         }
     }
 }
@@ -0,0 +1,178 @@
+package com.cookpad.prism.jsonl.converters;
+
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import lombok.Getter;
+
+// Parses ISO8601 timestamps into epoch millis and the local date of the value.
+// The common "yyyy-MM-ddTHH:mm:ss[.SSS...](Z|+HH:MM)" form is parsed directly from the parser's buffer,
+// and any other form is left to OffsetDateTime.parse.
+// Timestamps before the epoch are clamped to the epoch in the same offset.
+// Not thread-safe; the last date is cached because rows in a staging object have close timestamps.
+public class TimestampParser {
+    private static final int SECONDS_PER_DAY = 86400;
+
+    @Getter
+    private long epochMilli;
+    private long localEpochDay;
+
+    private final char[] lastDateText = new char[10];
+    private long lastDateEpochDay = Long.MIN_VALUE;
+    private long lastLocalEpochDay;
+    private LocalDate lastLocalDate;
+
+    // parser points to a non-null value token
+    public void parse(JsonParser parser) throws IOException, UnexpectedValueType {
+        if (parser.getCurrentToken() != JsonToken.VALUE_STRING) {
+            throw new UnexpectedValueType("ISO8601 string");
+        }
+        char[] text = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+        if (!this.parseFast(text, offset, length)) {
+            this.parseSlow(new String(text, offset, length));
+        }
+    }
+
+    public void parse(String text) throws UnexpectedValueType {
+        if (!this.parseFast(text.toCharArray(), 0, text.length())) {
+            this.parseSlow(text);
+        }
+    }
+
+    public LocalDate getLocalDate() {
+        if (this.lastLocalDate == null || this.lastLocalEpochDay != this.localEpochDay) {
+            this.lastLocalDate = LocalDate.ofEpochDay(this.localEpochDay);
+            this.lastLocalEpochDay = this.localEpochDay;
+        }
+        return this.lastLocalDate;
+    }
+
+    private void parseSlow(String text) throws UnexpectedValueType {
+        OffsetDateTime odt;
+        try {
+            odt = OffsetDateTime.parse(text);
+        } catch (DateTimeParseException ex) {
+            throw new UnexpectedValueType("ISO8601 string");
+        }
+        this.set(odt.toEpochSecond(), odt.getNano() / 1_000_000, odt.getOffset().getTotalSeconds());
+    }
+
+    // Returns false to fall back to the JDK parser
+    private boolean parseFast(char[] s, int off, int len) {
+        // yyyy-MM-ddTHH:mm:ss is 19 chars, and at least "Z" follows
+        if (len < 20 || s[off + 4] != '-' || s[off + 7] != '-' || s[off + 10] != 'T' || s[off + 13] != ':' || s[off + 16] != ':') {
+            return false;
+        }
+        long epochDay = this.parseDate(s, off);
+        if (epochDay == Long.MIN_VALUE) {
+            return false;
+        }
+        int hour = digits2(s, off + 11);
+        int minute = digits2(s, off + 14);
+        int second = digits2(s, off + 17);
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return false;
+        }
+
+        int pos = off + 19;
+        int end = off + len;
+        int millis = 0;
+        if (s[pos] == '.') {
+            pos++;
+            int fractionStart = pos;
+            while (pos < end && pos - fractionStart < 9 && isDigit(s[pos])) {
+                if (pos - fractionStart < 3) {
+                    millis = millis * 10 + (s[pos] - '0');
+                }
+                pos++;
+            }
+            int fractionDigits = pos - fractionStart;
+            if (fractionDigits == 0) {
+                return false;
+            }
+            for (int i = fractionDigits; i < 3; i++) {
+                millis *= 10;
+            }
+        }
+
+        int offsetSeconds;
+        if (pos == end - 1 && s[pos] == 'Z') {
+            offsetSeconds = 0;
+        } else if (pos == end - 6 && (s[pos] == '+' || s[pos] == '-') && s[pos + 3] == ':') {
+            int offsetHour = digits2(s, pos + 1);
+            int offsetMinute = digits2(s, pos + 4);
+            if (offsetHour < 0 || offsetHour > 17 || offsetMinute < 0 || offsetMinute > 59) {
+                return false;
+            }
+            offsetSeconds = offsetHour * 3600 + offsetMinute * 60;
+            if (s[pos] == '-') {
+                offsetSeconds = -offsetSeconds;
+            }
+        } else {
+            return false;
+        }
+
+        long epochSecond = epochDay * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second - offsetSeconds;
+        this.set(epochSecond, millis, offsetSeconds);
+        return true;
+    }
+
+    private void set(long epochSecond, int millis, int offsetSeconds) {
+        if (epochSecond < 0) {
+            epochSecond = Instant.EPOCH.getEpochSecond();
+            millis = 0;
+        }
+        this.epochMilli = epochSecond * 1000 + millis;
+        this.localEpochDay = Math.floorDiv(epochSecond + offsetSeconds, SECONDS_PER_DAY);
+    }
+
+    // Returns the epoch day of yyyy-MM-dd, or Long.MIN_VALUE if it is not a valid date
+    private long parseDate(char[] s, int off) {
+        boolean same = this.lastDateEpochDay != Long.MIN_VALUE;
+        for (int i = 0; same && i < 10; i++) {
+            same = this.lastDateText[i] == s[off + i];
+        }
+        if (same) {
+            return this.lastDateEpochDay;
+        }
+        int year1 = digits2(s, off);
+        int year2 = digits2(s, off + 2);
+        int month = digits2(s, off + 5);
+        int day = digits2(s, off + 8);
+        if (year1 < 0 || year2 < 0 || month < 0 || day < 0) {
+            return Long.MIN_VALUE;
+        }
+        long epochDay;
+        try {
+            epochDay = LocalDate.of(year1 * 100 + year2, month, day).toEpochDay();
+        } catch (DateTimeException ex) {
+            return Long.MIN_VALUE;
+        }
+        System.arraycopy(s, off, this.lastDateText, 0, 10);
+        this.lastDateEpochDay = epochDay;
+        return epochDay;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // Returns -1 if not 2 digits
+    private static int digits2(char[] s, int off) {
+        char c1 = s[off];
+        char c2 = s[off + 1];
+        if (!isDigit(c1) || !isDigit(c2)) {
+            return -1;
+        }
+        return (c1 - '0') * 10 + (c2 - '0');
+    }
+}
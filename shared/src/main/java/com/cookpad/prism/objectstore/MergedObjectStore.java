@@ -9,5 +9,7 @@ public interface MergedObjectStore {
     public InputStream getMergedObject(LocalDate dt, long lowerBound, long upperBound);
     public File getMergedObjectFile(LocalDate dt, long lowerBound, long upperBound) throws IOException;
     public String putMergedObjectFile(LocalDate dt, long lowerBound, long upperBound, File content);
+    // Returns null if the object does not exist
+    public String getMergedObjectETag(LocalDate dt, long lowerBound, long upperBound);
     public String putMergedPartitionManifest(LocalDate dt, long manifestVersion, String content);
 }
@@ -7,10 +7,10 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
 
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
 
@@ -22,6 +22,11 @@ import lombok.extern.slf4j.Slf4j;
 public class PrismObjectStore implements SmallObjectStore, MergedObjectStore {
     final private AmazonS3 s3;
     final private PrismTableLocator locator;
+    final private S3ObjectTransfer transfer;
+
+    public PrismObjectStore(AmazonS3 s3, PrismTableLocator locator) {
+        this(s3, locator, new S3ObjectTransfer(s3));
+    }
 
     @Override
     public InputStream getLiveObject(LocalDate dt, long objectId) {
@@ -33,9 +38,14 @@ public class PrismObjectStore implements SmallObjectStore, MergedObjectStore {
 
     @Override
     public File getLiveObjectFile(LocalDate dt, long objectId) throws IOException {
+        String key = locator.getLiveObjectKey(dt, objectId);
+        log.debug("Get live object: {}", key);
         Path tmpPath = Files.createTempFile("prism-batch-live-", ".parquet").toAbsolutePath();
-        try (InputStream in = this.getLiveObject(dt, objectId)) {
-            Files.copy(in, tmpPath, StandardCopyOption.REPLACE_EXISTING);
+        try {
+            this.transfer.download(locator.getBucketName(), key, tmpPath);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmpPath);
+            throw e;
         }
         return tmpPath.toFile();
     }
@@ -44,7 +54,7 @@ public class PrismObjectStore implements SmallObjectStore, MergedObjectStore {
     public String putLiveObjectFile(LocalDate dt, long objectId, File content) {
         String key = locator.getLiveObjectKey(dt, objectId);
         log.info("PutObject (live) key={}", key);
-        s3.putObject(locator.getBucketName(), key, content);
+        this.transfer.upload(locator.getBucketName(), key, content);
         return key;
     }
 
@@ -58,9 +68,14 @@ public class PrismObjectStore implements SmallObjectStore, MergedObjectStore {
 
     @Override
     public File getDelayedObjectFile(LocalDate dt, long objectId) throws IOException {
+        String key = locator.getDelayedObjectKey(dt, objectId);
+        log.debug("Get delayed object: {}", key);
         Path tmpPath = Files.createTempFile("prism-batch-delayed-", ".parquet").toAbsolutePath();
-        try (InputStream in = this.getDelayedObject(dt, objectId)) {
-            Files.copy(in, tmpPath, StandardCopyOption.REPLACE_EXISTING);
+        try {
+            this.transfer.download(locator.getBucketName(), key, tmpPath);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmpPath);
+            throw e;
         }
         return tmpPath.toFile();
     }
@@ -69,7 +84,7 @@ public class PrismObjectStore implements SmallObjectStore, MergedObjectStore {
     public String putDelayedObjectFile(LocalDate dt, long objectId, File content) {
         String key = locator.getDelayedObjectKey(dt, objectId);
         log.info("PutObject (delayed) key={}", key);
-        s3.putObject(locator.getBucketName(), key, content);
+        this.transfer.upload(locator.getBucketName(), key, content);
         return key;
     }
 
@@ -83,9 +98,14 @@ public class PrismObjectStore implements SmallObjectStore, MergedObjectStore {
 
     @Override
     public File getMergedObjectFile(LocalDate dt, long lowerBound, long upperBound) throws IOException {
+        String key = locator.getMergedObjectKey(dt, lowerBound, upperBound);
+        log.debug("Get merged object: {}", key);
         Path tmpPath = Files.createTempFile("prism-batch-merged-", ".parquet").toAbsolutePath();
-        try (InputStream in = this.getMergedObject(dt, lowerBound, upperBound)) {
-            Files.copy(in, tmpPath, StandardCopyOption.REPLACE_EXISTING);
+        try {
+            this.transfer.download(locator.getBucketName(), key, tmpPath);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmpPath);
+            throw e;
         }
         return tmpPath.toFile();
     }
@@ -94,10 +114,23 @@ public class PrismObjectStore implements SmallObjectStore, MergedObjectStore {
     public String putMergedObjectFile(LocalDate dt, long lowerBound, long upperBound, File content) {
         String key = locator.getMergedObjectKey(dt, lowerBound, upperBound);
         log.info("PutObject (merged) key={}", key);
-        s3.putObject(locator.getBucketName(), key, content);
+        this.transfer.upload(locator.getBucketName(), key, content);
         return key;
     }
 
+    @Override
+    public String getMergedObjectETag(LocalDate dt, long lowerBound, long upperBound) {
+        String key = locator.getMergedObjectKey(dt, lowerBound, upperBound);
+        try {
+            return s3.getObjectMetadata(locator.getBucketName(), key).getETag();
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
     @Override
     public String putMergedPartitionManifest(LocalDate dt, long manifestVersion, String content) {
         String key = locator.getMergedPartitionManifestKey(dt, manifestVersion);
@@ -10,9 +10,14 @@ import lombok.RequiredArgsConstructor;
 public class PrismObjectStoreFactory {
     final private AmazonS3 s3;
     final private PrismTableLocatorFactory objectLocator;
+    final private S3ObjectTransfer transfer;
+
+    public PrismObjectStoreFactory(AmazonS3 s3, PrismTableLocatorFactory objectLocator) {
+        this(s3, objectLocator, new S3ObjectTransfer(s3));
+    }
 
     public PrismObjectStore create(PrismTable table) {
         PrismTableLocator locator = this.objectLocator.build(table);
-        return new PrismObjectStore(this.s3, locator);
+        return new PrismObjectStore(this.s3, locator, this.transfer);
     }
 }
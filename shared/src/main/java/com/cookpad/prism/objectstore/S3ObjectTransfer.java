@@ -0,0 +1,228 @@
+package com.cookpad.prism.objectstore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Uploads files larger than partSize by multipart upload and downloads objects by ranged GETs, running parts concurrently.
+// With concurrency 1, files are transferred by a single PutObject/GetObject as before.
+@Slf4j
+public class S3ObjectTransfer {
+    // S3 rejects smaller parts except the last one
+    static final long MIN_PART_SIZE = 5 * 1024 * 1024;
+    static final int MAX_DOWNLOAD_ATTEMPTS = 3;
+
+    final private AmazonS3 s3;
+    final private long partSize;
+    // null to transfer sequentially
+    final private ExecutorService executor;
+
+    public S3ObjectTransfer(AmazonS3 s3) {
+        this.s3 = s3;
+        this.partSize = Long.MAX_VALUE;
+        this.executor = null;
+    }
+
+    public S3ObjectTransfer(AmazonS3 s3, long partSize, int concurrency) {
+        this.s3 = s3;
+        this.partSize = Math.max(partSize, MIN_PART_SIZE);
+        if (concurrency > 1) {
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(concurrency, (r) -> {
+                Thread th = new Thread(r, "s3-transfer-" + threadCount.incrementAndGet());
+                th.setDaemon(true);
+                return th;
+            });
+        } else {
+            this.executor = null;
+        }
+    }
+
+    public void upload(String bucketName, String key, File content) {
+        long length = content.length();
+        if (this.executor == null || length <= this.partSize) {
+            this.s3.putObject(bucketName, key, content);
+            return;
+        }
+        String uploadId = this.s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, key)).getUploadId();
+        try {
+            List<Future<PartETag>> futures = new ArrayList<>();
+            int partNumber = 1;
+            for (long offset = 0; offset < length; offset += this.partSize, partNumber++) {
+                UploadPartRequest req = new UploadPartRequest()
+                    .withBucketName(bucketName)
+                    .withKey(key)
+                    .withUploadId(uploadId)
+                    .withPartNumber(partNumber)
+                    .withFile(content)
+                    .withFileOffset(offset)
+                    .withPartSize(Math.min(this.partSize, length - offset))
+                    .withLastPart(offset + this.partSize >= length)
+                ;
+                futures.add(this.executor.submit(() -> this.s3.uploadPart(req).getPartETag()));
+            }
+            List<PartETag> partETags = new ArrayList<>();
+            for (Future<PartETag> future : futures) {
+                try {
+                    partETags.add(getResult(future));
+                } catch (IOException e) {
+                    // uploadPart does not throw IOException
+                    throw new UncheckedIOException(e);
+                }
+            }
+            this.s3.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, key, uploadId, partETags));
+            log.debug("Uploaded {} in {} parts", key, partETags.size());
+        } catch (RuntimeException e) {
+            try {
+                this.s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+            } catch (RuntimeException abortError) {
+                log.warn("Failed to abort multipart upload: {}", key, abortError);
+            }
+            throw e;
+        }
+    }
+
+    public void download(String bucketName, String key, Path dest) throws IOException {
+        if (this.executor == null) {
+            try (InputStream in = this.s3.getObject(bucketName, key).getObjectContent()) {
+                Files.copy(in, dest, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return;
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                this.downloadParts(bucketName, key, dest);
+                return;
+            } catch (ObjectChangedException e) {
+                if (attempt >= MAX_DOWNLOAD_ATTEMPTS) {
+                    throw e;
+                }
+                log.warn("Object was overwritten while downloading, retry: {}", key);
+            }
+        }
+    }
+
+    // Parts are pinned to the ETag of the first part so that an object overwritten meanwhile is not mixed up
+    private void downloadParts(String bucketName, String key, Path dest) throws IOException {
+        try (FileChannel channel = FileChannel.open(dest, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // The first part tells the whole length and the version to download
+            long length;
+            String eTag;
+            S3Object first;
+            try {
+                first = this.s3.getObject(new GetObjectRequest(bucketName, key).withRange(0, this.partSize - 1));
+            } catch (AmazonS3Exception e) {
+                if (e.getStatusCode() == 416) {
+                    // Range is not satisfiable: the object is empty
+                    return;
+                }
+                throw e;
+            }
+            try (InputStream in = first.getObjectContent()) {
+                length = first.getObjectMetadata().getInstanceLength();
+                eTag = first.getObjectMetadata().getETag();
+                writeAt(channel, in, 0);
+            }
+            List<Future<Void>> futures = new ArrayList<>();
+            for (long offset = this.partSize; offset < length; offset += this.partSize) {
+                GetObjectRequest req = new GetObjectRequest(bucketName, key)
+                    .withRange(offset, Math.min(offset + this.partSize, length) - 1)
+                    .withMatchingETagConstraint(eTag)
+                ;
+                long position = offset;
+                futures.add(this.executor.submit(() -> {
+                    S3Object part = this.s3.getObject(req);
+                    if (part == null) {
+                        // The ETag constraint was not met
+                        throw new ObjectChangedException(key);
+                    }
+                    try (InputStream in = part.getObjectContent()) {
+                        writeAt(channel, in, position);
+                    }
+                    return null;
+                }));
+            }
+            try {
+                for (Future<Void> future : futures) {
+                    getResult(future);
+                }
+            } finally {
+                for (Future<Void> future : futures) {
+                    future.cancel(true);
+                }
+            }
+            if (channel.size() != length) {
+                throw new IOException(String.format("Downloaded size mismatch: %s: expected %d, actual %d", key, length, channel.size()));
+            }
+        }
+    }
+
+    private static void writeAt(FileChannel channel, InputStream in, long position) throws IOException {
+        byte[] buf = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            ByteBuffer bb = ByteBuffer.wrap(buf, 0, n);
+            while (bb.hasRemaining()) {
+                position += channel.write(bb, position);
+            }
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    public static class ObjectChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public ObjectChangedException(String key) {
+            super("Object was overwritten while downloading: " + key);
+        }
+    }
+
+    public void shutdown() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.cookpad.prism.record;
+
+import java.util.List;
+
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import com.cookpad.prism.record.Schema.Column;
+import com.cookpad.prism.record.values.NonNullValue;
+import com.cookpad.prism.record.values.NullValue;
+import com.cookpad.prism.record.values.PrimitiveValue;
+import com.cookpad.prism.record.values.Value;
+import com.cookpad.prism.record.values.Value.WriteFieldException;
+
+import lombok.Getter;
+
+import static com.cookpad.prism.record.values.PrimitiveValue.*;
+
+// A record which keeps field values in primitive arrays instead of Value objects.
+// Fields are addressed by Column.getIndex(); INT32, INT64 and BOOLEAN fields are stored in a long array,
+// DOUBLE and FLOAT fields in a double array and BINARY fields in a Binary array.
+// Instances are mutable and may be reused for the next row by clear().
+public class ColumnarRecord implements Record {
+    @Getter
+    private final Layout layout;
+    private final long[] longs;
+    private final double[] doubles;
+    private final Binary[] binaries;
+    // bit is set if the field is null
+    private final long[] nulls;
+
+    public ColumnarRecord(Layout layout) {
+        this.layout = layout;
+        this.longs = new long[layout.longCount];
+        this.doubles = new double[layout.doubleCount];
+        this.binaries = new Binary[layout.binaryCount];
+        this.nulls = new long[(layout.columns.size() + 63) / 64];
+        this.clear();
+    }
+
+    public ColumnarRecord(Schema schema) {
+        this(new Layout(schema));
+    }
+
+    // Makes all fields null
+    public void clear() {
+        int size = this.layout.columns.size();
+        for (int i = 0; i < this.nulls.length; i++) {
+            int bits = Math.min(size - i * 64, 64);
+            this.nulls[i] = bits == 64 ? -1L : (1L << bits) - 1;
+        }
+        for (int i = 0; i < this.binaries.length; i++) {
+            this.binaries[i] = null;
+        }
+    }
+
+    public ColumnarRecord copy() {
+        ColumnarRecord copied = new ColumnarRecord(this.layout);
+        System.arraycopy(this.longs, 0, copied.longs, 0, this.longs.length);
+        System.arraycopy(this.doubles, 0, copied.doubles, 0, this.doubles.length);
+        System.arraycopy(this.binaries, 0, copied.binaries, 0, this.binaries.length);
+        System.arraycopy(this.nulls, 0, copied.nulls, 0, this.nulls.length);
+        return copied;
+    }
+
+    public boolean isNull(int index) {
+        return (this.nulls[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public void setNull(int index) {
+        this.nulls[index >>> 6] |= (1L << index);
+        if (this.layout.types[index] == PrimitiveTypeName.BINARY) {
+            this.binaries[this.layout.slots[index]] = null;
+        }
+    }
+
+    private void setNonNull(int index) {
+        this.nulls[index >>> 6] &= ~(1L << index);
+    }
+
+    public long getLong(int index) {
+        return this.longs[this.layout.slots[index]];
+    }
+
+    public int getInt(int index) {
+        return (int)this.longs[this.layout.slots[index]];
+    }
+
+    public boolean getBoolean(int index) {
+        return this.longs[this.layout.slots[index]] != 0;
+    }
+
+    public double getDouble(int index) {
+        return this.doubles[this.layout.slots[index]];
+    }
+
+    public float getFloat(int index) {
+        return (float)this.doubles[this.layout.slots[index]];
+    }
+
+    public Binary getBinary(int index) {
+        return this.binaries[this.layout.slots[index]];
+    }
+
+    public void setLong(int index, long value) {
+        this.longs[this.layout.slots[index]] = value;
+        this.setNonNull(index);
+    }
+
+    public void setInt(int index, int value) {
+        this.setLong(index, value);
+    }
+
+    public void setBoolean(int index, boolean value) {
+        this.setLong(index, value ? 1 : 0);
+    }
+
+    public void setDouble(int index, double value) {
+        this.doubles[this.layout.slots[index]] = value;
+        this.setNonNull(index);
+    }
+
+    public void setFloat(int index, float value) {
+        this.setDouble(index, value);
+    }
+
+    public void setBinary(int index, Binary value) {
+        this.binaries[this.layout.slots[index]] = value;
+        this.setNonNull(index);
+    }
+
+    public void setPrimitiveValue(int index, PrimitiveValue<?> value) {
+        switch (this.layout.types[index]) {
+        case BINARY:
+            this.setBinary(index, ((BinaryValue)value).getValue());
+            break;
+        case BOOLEAN:
+            this.setBoolean(index, ((BooleanValue)value).getValue());
+            break;
+        case INT32:
+            this.setInt(index, ((IntegerValue)value).getValue());
+            break;
+        case INT64:
+            this.setLong(index, ((LongValue)value).getValue());
+            break;
+        case DOUBLE:
+            this.setDouble(index, ((DoubleValue)value).getValue());
+            break;
+        case FLOAT:
+            this.setFloat(index, ((FloatValue)value).getValue());
+            break;
+        default:
+            throw new IllegalStateException("unsupported type: " + this.layout.types[index]);
+        }
+    }
+
+    // Copies a field value into another field of the same type
+    public void copyField(int from, int to) {
+        if (this.isNull(from)) {
+            this.setNull(to);
+            return;
+        }
+        switch (this.layout.types[from]) {
+        case BINARY:
+            this.setBinary(to, this.getBinary(from));
+            break;
+        case DOUBLE:
+        case FLOAT:
+            this.setDouble(to, this.getDouble(from));
+            break;
+        default:
+            this.setLong(to, this.getLong(from));
+            break;
+        }
+    }
+
+    private PrimitiveValue<?> getPrimitiveValue(int index) {
+        switch (this.layout.types[index]) {
+        case BINARY:
+            return new BinaryValue(this.getBinary(index));
+        case BOOLEAN:
+            return new BooleanValue(this.getBoolean(index));
+        case INT32:
+            return new IntegerValue(this.getInt(index));
+        case INT64:
+            return new LongValue(this.getLong(index));
+        case DOUBLE:
+            return new DoubleValue(this.getDouble(index));
+        case FLOAT:
+            return new FloatValue(this.getFloat(index));
+        default:
+            throw new IllegalStateException("unsupported type: " + this.layout.types[index]);
+        }
+    }
+
+    // Allocates Value objects; avoid in hot paths
+    @Override
+    public Value getValue(int index) {
+        if (this.isNull(index)) {
+            return new NullValue();
+        }
+        return new NonNullValue(this.layout.columns.get(index), this.getPrimitiveValue(index));
+    }
+
+    @Override
+    public long getTimestamp() {
+        if (this.isNull(Schema.TIMESTAMP_INDEX)) {
+            throw new RuntimeException("value of timestamp column is null");
+        }
+        return this.getLong(Schema.TIMESTAMP_INDEX);
+    }
+
+    @Override
+    public long estimateSize() {
+        long size = 16 + (16 + 8 * this.longs.length) + (16 + 8 * this.doubles.length) + (16 + 8 * this.nulls.length) + (16 + 4 * this.binaries.length);
+        for (Binary binary : this.binaries) {
+            if (binary != null) {
+                size += 48 + binary.length();
+            }
+        }
+        return size;
+    }
+
+    private void writeField(RecordConsumer consumer, Column column) {
+        int index = column.getIndex();
+        switch (this.layout.types[index]) {
+        case BINARY:
+            consumer.addBinary(this.getBinary(index));
+            break;
+        case BOOLEAN:
+            consumer.addBoolean(this.getBoolean(index));
+            break;
+        case INT32:
+            consumer.addInteger(this.getInt(index));
+            break;
+        case INT64:
+            consumer.addLong(this.getLong(index));
+            break;
+        case DOUBLE:
+            consumer.addDouble(this.getDouble(index));
+            break;
+        case FLOAT:
+            consumer.addFloat(this.getFloat(index));
+            break;
+        default:
+            throw new IllegalStateException("unsupported type: " + this.layout.types[index]);
+        }
+    }
+
+    @Override
+    public void writeMessage(RecordConsumer consumer) {
+        consumer.startMessage();
+        for (Column column : this.layout.columns) {
+            if (this.isNull(column.getIndex())) {
+                continue;
+            }
+            try {
+                column.startField(consumer);
+                this.writeField(consumer, column);
+                column.endField(consumer);
+            } catch (Exception e) {
+                throw new WriteFieldException(column.getName(), this.getPrimitiveValue(column.getIndex()).getValue(), e);
+            }
+        }
+        consumer.endMessage();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder("ColumnarRecord(");
+        for (int i = 0; i < this.layout.columns.size(); i++) {
+            if (i > 0) {
+                buf.append(", ");
+            }
+            buf.append(this.layout.columns.get(i).getName()).append('=');
+            buf.append(this.isNull(i) ? "null" : this.getPrimitiveValue(i).getValue());
+        }
+        return buf.append(')').toString();
+    }
+
+    // Maps each column to a slot of the array for its type; shared by all records of a schema
+    public static class Layout {
+        @Getter
+        private final Schema schema;
+        private final List<Column> columns;
+        private final PrimitiveTypeName[] types;
+        private final int[] slots;
+        private final int longCount;
+        private final int doubleCount;
+        private final int binaryCount;
+
+        public Layout(Schema schema) {
+            this.schema = schema;
+            this.columns = schema.getColumns();
+            this.types = new PrimitiveTypeName[this.columns.size()];
+            this.slots = new int[this.columns.size()];
+            int longCount = 0;
+            int doubleCount = 0;
+            int binaryCount = 0;
+            for (Column column : this.columns) {
+                int index = column.getIndex();
+                PrimitiveTypeName type = column.getValueType().getValueKind().getPrimitiveType();
+                this.types[index] = type;
+                switch (type) {
+                case BINARY:
+                    this.slots[index] = binaryCount++;
+                    break;
+                case DOUBLE:
+                case FLOAT:
+                    this.slots[index] = doubleCount++;
+                    break;
+                default:
+                    this.slots[index] = longCount++;
+                    break;
+                }
+            }
+            this.longCount = longCount;
+            this.doubleCount = doubleCount;
+            this.binaryCount = binaryCount;
+        }
+    }
+}
@@ -1,9 +1,28 @@
 package com.cookpad.prism.record;
 
 import org.apache.parquet.io.api.RecordConsumer;
+import com.cookpad.prism.record.values.NonNullValue;
+import com.cookpad.prism.record.values.PrimitiveValue;
 import com.cookpad.prism.record.values.Value;
+import com.cookpad.prism.record.values.PrimitiveValue.LongValue;
 
 public interface Record {
     public void writeMessage(RecordConsumer consumer);
     public Value getValue(int index);
+
+    // Unix timestamp in millis of the timestamp column
+    public default long getTimestamp() {
+        Value tsValue = this.getValue(Schema.TIMESTAMP_INDEX);
+        if (!(tsValue instanceof NonNullValue)) {
+            throw new RuntimeException("value of timestamp column is null");
+        }
+        PrimitiveValue<?> pValue = ((NonNullValue)tsValue).getInner();
+        if (!(pValue instanceof LongValue)) {
+            throw new RuntimeException("value of timestamp column is not a LongValue");
+        }
+        return ((LongValue)pValue).getValue();
+    }
+
+    // Rough heap usage in bytes
+    public long estimateSize();
 }
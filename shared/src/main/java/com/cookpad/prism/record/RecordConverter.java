@@ -5,31 +5,24 @@ import org.apache.parquet.io.api.Converter;
 import org.apache.parquet.io.api.GroupConverter;
 import org.apache.parquet.io.api.PrimitiveConverter;
 import com.cookpad.prism.record.Schema.Column;
-import com.cookpad.prism.record.values.NonNullValue;
-import com.cookpad.prism.record.values.NullValue;
-import com.cookpad.prism.record.values.Value;
-
-import static com.cookpad.prism.record.values.PrimitiveValue.*;
 
 import java.util.List;
 import java.util.stream.Collectors;
 
-import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 
+// Materializes every row into the same ColumnarRecord instance.
+// Callers must not keep a record after reading the next one (copy() it if needed).
 public class RecordConverter extends GroupConverter {
-    private final Schema schema;
-    @Getter
-    private List<Value> currentValues;
+    private final ColumnarRecord currentRecord;
     private final List<SimplePrimitiveConverter> converters;
 
     public RecordConverter(@NonNull Schema schema) {
-        this.schema = schema;
-        this.initCurrentValues();
-        this.converters = this.schema.getColumns()
+        this.currentRecord = new ColumnarRecord(schema);
+        this.converters = schema.getColumns()
             .stream()
-            .map((col) -> new SimplePrimitiveConverter(this, col))
+            .map((col) -> new SimplePrimitiveConverter(this.currentRecord, col.getIndex()))
             .collect(Collectors.toList());
     }
 
@@ -40,7 +33,7 @@ public class RecordConverter extends GroupConverter {
 
     @Override
     public void start() {
-        this.initCurrentValues();
+        this.currentRecord.clear();
     }
 
     @Override
@@ -48,55 +41,43 @@ public class RecordConverter extends GroupConverter {
         // Do nothing
     }
 
-    private void initCurrentValues() {
-        this.currentValues = this.schema.getColumns()
-            .stream()
-            .map((column) -> new NullValue())
-            .collect(Collectors.toList())
-        ;
-    }
-
     public Record getCurrentRecord() {
-        return new ValueListRecord(this.currentValues);
+        return this.currentRecord;
     }
 
     @RequiredArgsConstructor
     private static class SimplePrimitiveConverter extends PrimitiveConverter {
-        final private RecordConverter parent;
-        final private Column column;
-
-        private void setValue(Value value) {
-            this.parent.getCurrentValues().set(this.column.getIndex(), value);
-        }
+        final private ColumnarRecord record;
+        final private int index;
 
         @Override
         public void addBinary(Binary value) {
-            this.setValue(new NonNullValue(this.column, new BinaryValue(value)));
+            this.record.setBinary(this.index, value);
         }
 
         @Override
         public void addBoolean(boolean value) {
-            this.setValue(new NonNullValue(this.column, new BooleanValue(value)));
+            this.record.setBoolean(this.index, value);
         }
 
         @Override
         public void addInt(int value) {
-            this.setValue(new NonNullValue(this.column, new IntegerValue(value)));
+            this.record.setInt(this.index, value);
         }
 
         @Override
         public void addLong(long value) {
-            this.setValue(new NonNullValue(this.column, new LongValue(value)));
+            this.record.setLong(this.index, value);
         }
 
         @Override
         public void addDouble(double value) {
-            this.setValue(new NonNullValue(this.column, new DoubleValue(value)));
+            this.record.setDouble(this.index, value);
         }
 
         @Override
         public void addFloat(float value) {
-            this.setValue(new NonNullValue(this.column, new FloatValue(value)));
+            this.record.setFloat(this.index, value);
         }
     }
 }
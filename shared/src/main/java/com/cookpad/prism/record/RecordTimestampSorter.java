@@ -0,0 +1,84 @@
+package com.cookpad.prism.record;
+
+import java.util.List;
+
+// Stable sort of records by timestamp, same order as RecordTimestampComparator for non-null records.
+// Timestamps are copied into a long array and LSD radix sorted with record indexes,
+// which avoids virtual calls and unboxing on each comparison.
+public class RecordTimestampSorter {
+    private static final int RADIX_BITS = 8;
+    private static final int BUCKETS = 1 << RADIX_BITS;
+    private static final int PASSES = Long.SIZE / RADIX_BITS;
+
+    // Returns indexes of records in ascending order of their timestamps
+    public static int[] sortedIndexes(List<? extends Record> records) {
+        int size = records.size();
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = records.get(i).getTimestamp();
+        }
+        return sortedIndexes(keys);
+    }
+
+    public static int[] sortedIndexes(long[] keys) {
+        int size = keys.length;
+        int[] indexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            indexes[i] = i;
+        }
+        if (isSorted(keys)) {
+            // Typical for staging objects written in order
+            return indexes;
+        }
+
+        // Flip the sign bit to sort signed values as unsigned
+        long[] src = new long[size];
+        for (int i = 0; i < size; i++) {
+            src[i] = keys[i] ^ Long.MIN_VALUE;
+        }
+        int[][] counts = new int[PASSES][BUCKETS];
+        for (long key : src) {
+            for (int pass = 0; pass < PASSES; pass++) {
+                counts[pass][(int)(key >>> (pass * RADIX_BITS)) & (BUCKETS - 1)]++;
+            }
+        }
+
+        long[] dst = new long[size];
+        int[] dstIndexes = new int[size];
+        for (int pass = 0; pass < PASSES; pass++) {
+            int[] count = counts[pass];
+            int shift = pass * RADIX_BITS;
+            // Skip digits shared by all keys, e.g. upper bytes of timestamps in the same period
+            if (count[(int)(src[0] >>> shift) & (BUCKETS - 1)] == size) {
+                continue;
+            }
+            int offset = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                int c = count[b];
+                count[b] = offset;
+                offset += c;
+            }
+            for (int i = 0; i < size; i++) {
+                int pos = count[(int)(src[i] >>> shift) & (BUCKETS - 1)]++;
+                dst[pos] = src[i];
+                dstIndexes[pos] = indexes[i];
+            }
+            long[] tmpKeys = src;
+            src = dst;
+            dst = tmpKeys;
+            int[] tmpIndexes = indexes;
+            indexes = dstIndexes;
+            dstIndexes = tmpIndexes;
+        }
+        return indexes;
+    }
+
+    private static boolean isSorted(long[] keys) {
+        for (int i = 1; i < keys.length; i++) {
+            if (keys[i - 1] > keys[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
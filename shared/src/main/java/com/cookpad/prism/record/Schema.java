@@ -36,12 +36,25 @@ public class Schema {
     @Getter
     @NonNull
     private final List<Column> secondaryTimestampColumns;
+    @Getter
+    @NonNull
+    private final WriterProfiles writerProfiles;
+    // built lazily; schemas are shared by readers and writers through caches
+    @ToString.Exclude
+    private volatile MessageType messageType;
 
     public Column getTimestampColumn() {
         return this.columns.get(TIMESTAMP_INDEX);
     }
 
     public MessageType toMessageType() {
+        if (this.messageType == null) {
+            this.messageType = this.buildMessageType();
+        }
+        return this.messageType;
+    }
+
+    private MessageType buildMessageType() {
         List<Type> fields = this.getColumns()
             .stream()
             .map(Column::toFieldType)
@@ -57,6 +70,7 @@ public class Schema {
         private List<Column> columns;
         private ZoneOffset zoneOffset;
         private List<Column> secondaryTimestampColumns;
+        private WriterProfiles writerProfiles = WriterProfiles.DEFAULT;
 
         public Builder(String logicalSchemaName, String logicalTableName) {
             this.logicalSchemaName = logicalSchemaName;
@@ -66,6 +80,11 @@ public class Schema {
             this.secondaryTimestampColumns = new ArrayList<>();
         }
 
+        public Builder withWriterProfiles(WriterProfiles writerProfiles) {
+            this.writerProfiles = writerProfiles;
+            return this;
+        }
+
         public Builder addColumn(String name, ValueType type, boolean isNullable) {
             Column column = new Column(this.columns.size(), name, type, isNullable, false);
             this.columns.add(column);
@@ -106,7 +125,8 @@ public class Schema {
                 this.logicalTableName,
                 this.columns,
                 this.zoneOffset,
-                this.secondaryTimestampColumns
+                this.secondaryTimestampColumns,
+                this.writerProfiles
             );
         }
 
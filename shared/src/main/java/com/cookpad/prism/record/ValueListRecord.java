@@ -3,7 +3,10 @@ package com.cookpad.prism.record;
 import java.util.List;
 
 import org.apache.parquet.io.api.RecordConsumer;
+import com.cookpad.prism.record.values.NonNullValue;
+import com.cookpad.prism.record.values.PrimitiveValue;
 import com.cookpad.prism.record.values.Value;
+import com.cookpad.prism.record.values.PrimitiveValue.BinaryValue;
 
 import lombok.EqualsAndHashCode;
 import lombok.RequiredArgsConstructor;
@@ -27,4 +30,19 @@ public class ValueListRecord implements Record {
     public Value getValue(int index) {
         return this.values.get(index);
     }
+
+    @Override
+    public long estimateSize() {
+        long size = 64;
+        for (Value value : this.values) {
+            size += 48;
+            if (value instanceof NonNullValue) {
+                PrimitiveValue<?> inner = ((NonNullValue)value).getInner();
+                if (inner instanceof BinaryValue) {
+                    size += ((BinaryValue)inner).getValue().length();
+                }
+            }
+        }
+        return size;
+    }
 }
@@ -0,0 +1,56 @@
+package com.cookpad.prism.record;
+
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Parquet writer settings; null fields are left to the defaults
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class WriterProfile {
+    public static final WriterProfile DEFAULT = new WriterProfile(CompressionCodecName.SNAPPY, null, null, null);
+
+    private CompressionCodecName codec;
+    private Integer rowGroupSize;
+    private Integer pageSize;
+    private Boolean dictionary;
+
+    public RecordWriterBuilder applyTo(RecordWriterBuilder builder) {
+        builder.withCompressionCodec(this.codec != null ? this.codec : DEFAULT.getCodec());
+        if (this.rowGroupSize != null) {
+            builder.withRowGroupSize(this.rowGroupSize);
+        }
+        if (this.pageSize != null) {
+            builder.withPageSize(this.pageSize);
+            builder.withDictionaryPageSize(this.pageSize);
+        }
+        if (this.dictionary != null) {
+            builder.withDictionaryEncoding(this.dictionary);
+        }
+        return builder;
+    }
+
+    // Codecs other than these need native libraries which are not available
+    public void validate() throws IllegalArgumentException {
+        if (this.codec != null && this.codec != CompressionCodecName.UNCOMPRESSED && this.codec != CompressionCodecName.SNAPPY && this.codec != CompressionCodecName.GZIP) {
+            throw new IllegalArgumentException("unsupported codec: " + this.codec);
+        }
+        if (this.rowGroupSize != null && this.rowGroupSize <= 0) {
+            throw new IllegalArgumentException("row_group_size must be positive: " + this.rowGroupSize);
+        }
+        if (this.pageSize != null && (this.pageSize <= 0 || this.pageSize > ParquetWriter.DEFAULT_BLOCK_SIZE)) {
+            throw new IllegalArgumentException("page_size is out of range: " + this.pageSize);
+        }
+    }
+
+    public static enum Purpose {
+        // Files converted from staging objects by stream
+        SMALL_OBJECT,
+        // Files written by merge, including intermediate ones whose row groups may be copied into the final objects
+        MERGED_OBJECT,
+    }
+}
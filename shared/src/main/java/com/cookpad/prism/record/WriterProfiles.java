@@ -0,0 +1,60 @@
+package com.cookpad.prism.record;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Writer profiles of a table by purpose, stored as JSON in prism_tables.writer_profiles like:
+// {"small_object": {"row_group_size": 8388608}, "merged_object": {"codec": "GZIP", "dictionary": true}}
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class WriterProfiles {
+    public static final WriterProfiles DEFAULT = new WriterProfiles(WriterProfile.DEFAULT, WriterProfile.DEFAULT);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+        .setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE)
+        .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private WriterProfile smallObject = WriterProfile.DEFAULT;
+    private WriterProfile mergedObject = WriterProfile.DEFAULT;
+
+    public WriterProfile get(WriterProfile.Purpose purpose) {
+        switch (purpose) {
+        case SMALL_OBJECT:
+            return this.smallObject;
+        case MERGED_OBJECT:
+            return this.mergedObject;
+        default:
+            throw new IllegalArgumentException("unknown purpose: " + purpose);
+        }
+    }
+
+    // null or empty means the defaults
+    public static WriterProfiles parse(String json) throws IllegalArgumentException {
+        if (json == null || json.isBlank()) {
+            return DEFAULT;
+        }
+        WriterProfiles profiles;
+        try {
+            profiles = MAPPER.readValue(json, WriterProfiles.class);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("malformed writer profiles: " + json, e);
+        }
+        if (profiles.getSmallObject() == null) {
+            profiles.setSmallObject(WriterProfile.DEFAULT);
+        }
+        if (profiles.getMergedObject() == null) {
+            profiles.setMergedObject(WriterProfile.DEFAULT);
+        }
+        profiles.getSmallObject().validate();
+        profiles.getMergedObject().validate();
+        return profiles;
+    }
+}
@@ -28,4 +28,14 @@ public class DateAttachedRecord implements PartitionedRecord {
     public Value getValue(int index) {
         return this.inner.getValue(index);
     }
+
+    @Override
+    public long getTimestamp() {
+        return this.inner.getTimestamp();
+    }
+
+    @Override
+    public long estimateSize() {
+        return this.inner.estimateSize();
+    }
 }
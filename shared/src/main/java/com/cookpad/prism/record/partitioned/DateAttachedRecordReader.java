@@ -0,0 +1,10 @@
+package com.cookpad.prism.record.partitioned;
+
+import java.io.IOException;
+
+public interface DateAttachedRecordReader extends AutoCloseable {
+    // Returns null at the end of input
+    public DateAttachedRecord read() throws IOException;
+    @Override
+    public void close() throws IOException;
+}
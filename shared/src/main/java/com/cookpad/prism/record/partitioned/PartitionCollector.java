@@ -38,6 +38,10 @@ public class PartitionCollector implements AutoCloseable {
     // Clean up temp files or they will run out of disk space
     @Override
     public void close() throws IOException {
+        if (this.partitionToTempFile == null) {
+            // The writer failed before commit; nothing was handed over
+            return;
+        }
         for (TempFile dest: this.partitionToTempFile.values()) {
             File file = dest.getPath().toFile();
             if (!file.delete()) {
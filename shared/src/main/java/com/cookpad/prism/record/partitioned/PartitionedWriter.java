@@ -14,7 +14,9 @@ import com.cookpad.prism.record.Schema;
 import lombok.Data;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 
+@Slf4j
 @RequiredArgsConstructor
 public class PartitionedWriter implements PartitionedRecordWriter {
     private final RecordWriterFactory recordWriterFactory;
@@ -30,7 +32,13 @@ public class PartitionedWriter implements PartitionedRecordWriter {
         Partition dest = this.partitions.get(date);
         if (dest == null) {
             TempFile tempFile = this.tempFileFactory.create();
-            ParquetWriter<Record> writer = recordWriterFactory.build(this.schema, tempFile.getPath());
+            ParquetWriter<Record> writer;
+            try {
+                writer = recordWriterFactory.build(this.schema, tempFile.getPath());
+            } catch (IOException | RuntimeException e) {
+                tempFile.close();
+                throw e;
+            }
             dest = new Partition(tempFile, writer);
             this.partitions.put(date, dest);
         }
@@ -52,6 +60,23 @@ public class PartitionedWriter implements PartitionedRecordWriter {
         this.partitionCollector.commit(partitionToTempFile);
     }
 
+    // Discards all files written so far instead of closing; errors are logged because the caller is already failing
+    public void abort() {
+        for (Partition partition : this.partitions.values()) {
+            try {
+                partition.getWriter().close();
+            } catch (IOException | RuntimeException e) {
+                log.debug("Failed to close aborted writer: {}", partition.getTempFile().getPath(), e);
+            }
+            try {
+                partition.getTempFile().close();
+            } catch (IOException e) {
+                log.warn("Failed to delete temp file: {}", partition.getTempFile().getPath(), e);
+            }
+        }
+        this.partitions.clear();
+    }
+
     @Data
     private static class Partition {
         private final TempFile tempFile;
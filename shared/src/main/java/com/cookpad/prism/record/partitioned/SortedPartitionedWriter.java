@@ -1,6 +1,7 @@
 package com.cookpad.prism.record.partitioned;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.TreeMap;
 
@@ -9,6 +10,7 @@ import com.cookpad.prism.TempFile;
 import com.cookpad.prism.record.Record;
 import com.cookpad.prism.record.RecordWriterFactory;
 import com.cookpad.prism.record.Schema;
+import com.cookpad.prism.record.WriterProfile;
 
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
@@ -19,6 +21,7 @@ public class SortedPartitionedWriter implements PartitionedRecordWriter {
     private final TempFile.Factory tempFileFactory;
     private final PartitionCollector partitionCollector;
     private final Schema schema;
+    private final FileClosedListener fileClosedListener;
 
     private LocalDate currentDate = null;
     private ParquetWriter<Record> currentWriter = null;
@@ -26,6 +29,10 @@ public class SortedPartitionedWriter implements PartitionedRecordWriter {
     @Getter
     private final TreeMap<LocalDate, TempFile> partitions = new TreeMap<>();
 
+    public SortedPartitionedWriter(RecordWriterFactory recordWriterFactory, TempFile.Factory tempFileFactory, PartitionCollector partitionCollector, Schema schema) {
+        this(recordWriterFactory, tempFileFactory, partitionCollector, schema, (date, path) -> {});
+    }
+
     @Override
     public void write(PartitionedRecord record) throws IOException {
         if (this.currentDate == null || record.getPartitionDate().compareTo(this.currentDate) > 0) {
@@ -37,20 +44,33 @@ public class SortedPartitionedWriter implements PartitionedRecordWriter {
     }
 
     private void switchWriter(LocalDate newDate) throws IOException {
-        if (this.currentWriter != null) {
-            this.currentWriter.close();
-        }
+        this.closeCurrentWriter();
         TempFile tempFile = this.tempFileFactory.create();
-        this.currentWriter = this.recordWriterFactory.build(this.schema, tempFile.getPath());
+        // Files written here are uploaded as small objects
+        this.currentWriter = this.recordWriterFactory.build(this.schema, tempFile.getPath(), this.schema.getWriterProfiles().get(WriterProfile.Purpose.SMALL_OBJECT));
         this.currentDate = newDate;
         this.partitions.put(newDate, tempFile);
     }
 
+    // Dates are written in order, so the file of a date is complete once its writer is closed
+    private void closeCurrentWriter() throws IOException {
+        if (this.currentWriter == null) {
+            return;
+        }
+        this.currentWriter.close();
+        this.currentWriter = null;
+        this.fileClosedListener.fileClosed(this.currentDate, this.partitions.get(this.currentDate).getPath());
+    }
+
     @Override
     public void close() throws IOException {
-        if (this.currentWriter != null) {
-            this.currentWriter.close();
-        }
+        this.closeCurrentWriter();
         this.partitionCollector.commit(this.partitions);
     }
+
+    // Notified on the writer thread; the file is deleted when the PartitionCollector is closed
+    @FunctionalInterface
+    public static interface FileClosedListener {
+        public void fileClosed(LocalDate date, Path path) throws IOException;
+    }
 }
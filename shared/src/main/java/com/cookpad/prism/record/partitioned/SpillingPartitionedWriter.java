@@ -0,0 +1,174 @@
+package com.cookpad.prism.record.partitioned;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.parquet.hadoop.ParquetReader;
+import com.cookpad.prism.TempFile;
+import com.cookpad.prism.record.Record;
+import com.cookpad.prism.record.RecordReaderFactory;
+import com.cookpad.prism.record.RecordTimestampComparator;
+import com.cookpad.prism.record.RecordTimestampSorter;
+import com.cookpad.prism.record.RecordWriterFactory;
+import com.cookpad.prism.record.Schema;
+
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+// Sorts records by timestamp and writes them into per-date files like SortedPartitionedWriter does.
+// Once buffered records exceed memoryBudget (estimated bytes), they are sorted and spilled to local disk
+// as a run of per-date parquet files, and all runs are k-way merged on close.
+// memoryBudget <= 0 means unlimited (never spill).
+// Call commit() once all records are written; close() without it writes nothing, so that a partially read input
+// is never handed to fileClosedListener.
+@Slf4j
+@RequiredArgsConstructor
+public class SpillingPartitionedWriter implements PartitionedRecordWriter {
+    private final RecordWriterFactory recordWriterFactory;
+    private final RecordReaderFactory recordReaderFactory;
+    private final TempFile.Factory tempFileFactory;
+    private final PartitionCollector partitionCollector;
+    private final Schema schema;
+    private final long memoryBudget;
+    private final SortedPartitionedWriter.FileClosedListener fileClosedListener;
+
+    private final TempFile.Factory spillFileFactory = new TempFile.Factory("prism-spill-", ".parquet");
+    private final RecordTimestampComparator comparator = new RecordTimestampComparator();
+    private final List<PartitionedRecord> buffer = new ArrayList<>();
+    private long bufferedSize = 0;
+    private final List<PartitionCollector> runs = new ArrayList<>();
+    private boolean committed = false;
+
+    public SpillingPartitionedWriter(RecordWriterFactory recordWriterFactory, RecordReaderFactory recordReaderFactory, TempFile.Factory tempFileFactory, PartitionCollector partitionCollector, Schema schema, long memoryBudget) {
+        this(recordWriterFactory, recordReaderFactory, tempFileFactory, partitionCollector, schema, memoryBudget, (date, path) -> {});
+    }
+
+    @Override
+    public void write(PartitionedRecord record) throws IOException {
+        this.buffer.add(record);
+        this.bufferedSize += record.estimateSize();
+        if (this.memoryBudget > 0 && this.bufferedSize >= this.memoryBudget) {
+            this.spill();
+        }
+    }
+
+    private void spill() throws IOException {
+        PartitionCollector run = new PartitionCollector();
+        PartitionedWriter writer = new PartitionedWriter(this.recordWriterFactory, this.spillFileFactory, run, this.schema);
+        try {
+            this.writeSorted(writer);
+            writer.close();
+        } catch (IOException | RuntimeException e) {
+            // e.g. disk full; do not leave the partial run on disk
+            writer.abort();
+            throw e;
+        }
+        // Only committed runs are merged and cleaned up on close
+        this.runs.add(run);
+        log.debug("Spilled sorted run #{}: records={}, estimated size={}", this.runs.size(), this.buffer.size(), this.bufferedSize);
+        this.buffer.clear();
+        this.bufferedSize = 0;
+    }
+
+    // Writes buffered records in timestamp order without reordering the buffer itself
+    private void writeSorted(PartitionedRecordWriter writer) throws IOException {
+        for (int index : RecordTimestampSorter.sortedIndexes(this.buffer)) {
+            writer.write(this.buffer.get(index));
+        }
+    }
+
+    // Marks all records written
+    public void commit() {
+        this.committed = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!this.committed) {
+                // Aborted: discard buffered records and runs without writing any file
+                this.buffer.clear();
+                this.partitionCollector.commit(new TreeMap<>());
+                return;
+            }
+            try (PartitionedRecordWriter writer = new SortedPartitionedWriter(this.recordWriterFactory, this.tempFileFactory, this.partitionCollector, this.schema, this.fileClosedListener)) {
+                if (this.runs.isEmpty()) {
+                    this.writeSorted(writer);
+                    this.buffer.clear();
+                    return;
+                }
+                if (!this.buffer.isEmpty()) {
+                    this.spill();
+                }
+                this.mergeRuns(writer);
+            }
+        } finally {
+            // Every run must be cleaned up, and an error here must not hide the original one
+            for (PartitionCollector run : this.runs) {
+                try {
+                    run.close();
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Failed to clean up spilled run", e);
+                }
+            }
+        }
+    }
+
+    private void mergeRuns(PartitionedRecordWriter writer) throws IOException {
+        List<TreeMap<LocalDate, Path>> runPartitions = new ArrayList<>();
+        TreeSet<LocalDate> dates = new TreeSet<>();
+        for (PartitionCollector run : this.runs) {
+            TreeMap<LocalDate, Path> partitions = run.collect();
+            runPartitions.add(partitions);
+            dates.addAll(partitions.keySet());
+        }
+        // Records are sorted by timestamp within each date, so merge date by date
+        for (LocalDate date : dates) {
+            List<ParquetReader<Record>> readers = new ArrayList<>();
+            try {
+                PriorityQueue<RunHead> heads = new PriorityQueue<>(
+                    Comparator.<RunHead, Record>comparing(RunHead::getRecord, this.comparator).thenComparingInt(RunHead::getRunIndex)
+                );
+                for (int i = 0; i < runPartitions.size(); i++) {
+                    Path path = runPartitions.get(i).get(date);
+                    if (path == null) {
+                        continue;
+                    }
+                    ParquetReader<Record> reader = this.recordReaderFactory.build(this.schema, path);
+                    readers.add(reader);
+                    Record record = reader.read();
+                    if (record != null) {
+                        heads.add(new RunHead(reader, i, record));
+                    }
+                }
+                while (!heads.isEmpty()) {
+                    RunHead head = heads.poll();
+                    writer.write(new DateAttachedRecord(head.getRecord(), date));
+                    Record next = head.getReader().read();
+                    if (next != null) {
+                        heads.add(new RunHead(head.getReader(), head.getRunIndex(), next));
+                    }
+                }
+            } finally {
+                for (ParquetReader<Record> reader : readers) {
+                    reader.close();
+                }
+            }
+        }
+    }
+
+    @Data
+    private static class RunHead {
+        private final ParquetReader<Record> reader;
+        private final int runIndex;
+        private final Record record;
+    }
+}
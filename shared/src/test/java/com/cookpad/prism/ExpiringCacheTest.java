@@ -0,0 +1,80 @@
+package com.cookpad.prism;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ExpiringCacheTest {
+    static class MutableClock extends Clock {
+        Instant instant = Instant.parse("2019-03-01T00:00:00Z");
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return this.instant;
+        }
+    }
+
+    @Test
+    void testExpire() {
+        var clock = new MutableClock();
+        var cache = new ExpiringCache<String, Integer>(Duration.ofSeconds(60), clock);
+        var loads = new AtomicInteger();
+
+        assertEquals(1, cache.get("a", (key) -> loads.incrementAndGet()));
+        clock.instant = clock.instant.plusSeconds(59);
+        assertEquals(1, cache.get("a", (key) -> loads.incrementAndGet()));
+        clock.instant = clock.instant.plusSeconds(1);
+        assertEquals(2, cache.get("a", (key) -> loads.incrementAndGet()));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void testNullIsNotCached() {
+        var cache = new ExpiringCache<String, Integer>(Duration.ofSeconds(60));
+        var loads = new AtomicInteger();
+
+        assertNull(cache.get("a", (key) -> { loads.incrementAndGet(); return null; }));
+        assertNull(cache.get("a", (key) -> { loads.incrementAndGet(); return null; }));
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testZeroTtl() {
+        var cache = new ExpiringCache<String, Integer>(Duration.ZERO);
+        var loads = new AtomicInteger();
+
+        cache.get("a", (key) -> loads.incrementAndGet());
+        cache.get("a", (key) -> loads.incrementAndGet());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void testSweepExpiredEntries() {
+        var clock = new MutableClock();
+        var cache = new ExpiringCache<String, Integer>(Duration.ofSeconds(60), clock);
+
+        cache.get("a", (key) -> 1);
+        clock.instant = clock.instant.plusSeconds(120);
+        cache.get("b", (key) -> 2);
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,67 @@
+package com.cookpad.prism.jsonl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.concurrent.Executors;
+
+import org.apache.parquet.io.api.Binary;
+import com.cookpad.prism.record.Schema;
+import com.cookpad.prism.record.SizedValueType;
+import com.cookpad.prism.record.UnsizedValueType;
+import com.cookpad.prism.record.ValueKind;
+import com.cookpad.prism.record.Schema.Builder.BadSchemaError;
+import com.cookpad.prism.record.values.NonNullValue;
+import com.cookpad.prism.record.values.PrimitiveValue;
+import org.junit.jupiter.api.Test;
+
+public class ChunkedJsonlRecordReaderTest {
+    @Test
+    void readInInputOrder() throws BadSchemaError, IOException {
+        var schema = new Schema.Builder("dummy_schema", "dummy_table")
+            .addTimestampColumn("utc_event_time", new UnsizedValueType(ValueKind.TIMESTAMP), false, ZoneOffset.ofHours(9))
+            .addColumn("user_id", new UnsizedValueType(ValueKind.BIGINT), true)
+            .addColumn("payload", new SizedValueType(ValueKind.STRING, 1000), true)
+            .build();
+        var longPayload = "x".repeat(300);
+        var source = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            var payload = i == 50 ? longPayload : "p" + i;
+            source.append("{\"user_id\":" + i + ",\"payload\":\"" + payload + "\",\"utc_event_time\":\"2018-10-" + (10 + i % 10) + "T09:00:23+09:00\"}\n");
+        }
+        // The last line has no trailing newline
+        source.append("{\"user_id\":100,\"utc_event_time\":\"2018-10-24T09:00:23+09:00\"}");
+
+        var executor = Executors.newFixedThreadPool(4);
+        try (
+            var in = new ByteArrayInputStream(source.toString().getBytes(StandardCharsets.UTF_8));
+            // Chunks are smaller than some lines
+            var recordReader = new ChunkedJsonlRecordReader(schema, in, executor, 64, 3)
+        ) {
+            var columns = schema.getColumns();
+            for (int i = 0; i < 100; i++) {
+                var record = recordReader.read();
+                assertEquals(LocalDate.of(2018, 10, 10 + i % 10), record.getPartitionDate());
+                assertEquals(
+                    new NonNullValue(columns.get(1), new PrimitiveValue.LongValue((long)i)),
+                    record.getValue(1));
+                var payload = i == 50 ? longPayload : "p" + i;
+                assertEquals(
+                    new NonNullValue(columns.get(2), new PrimitiveValue.BinaryValue(Binary.fromString(payload))),
+                    record.getValue(2));
+            }
+            var last = recordReader.read();
+            assertEquals(LocalDate.of(2018, 10, 24), last.getPartitionDate());
+            assertEquals(
+                new NonNullValue(columns.get(1), new PrimitiveValue.LongValue(100L)),
+                last.getValue(1));
+            assertNull(recordReader.read());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
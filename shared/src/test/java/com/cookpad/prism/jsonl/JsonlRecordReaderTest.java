@@ -2,13 +2,17 @@ package com.cookpad.prism.jsonl;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
 
+import org.apache.parquet.io.api.Binary;
 import com.cookpad.prism.record.Schema;
+import com.cookpad.prism.record.SizedValueType;
 import com.cookpad.prism.record.UnsizedValueType;
 import com.cookpad.prism.record.ValueKind;
 import com.cookpad.prism.record.Schema.Builder.BadSchemaError;
@@ -106,4 +110,102 @@ public class JsonlRecordReaderTest {
             assertNull(eof);
         }
     }
+
+    @Test
+    void readSchemaFieldsOnly() throws BadSchemaError, IOException {
+        var schema = new Schema.Builder("dummy_schema", "dummy_table")
+            .addTimestampColumn("utc_event_time", new UnsizedValueType(ValueKind.TIMESTAMP), false, ZoneOffset.ofHours(9))
+            .addColumn("user_id", new UnsizedValueType(ValueKind.BIGINT), true)
+            .addColumn("payload", new SizedValueType(ValueKind.STRING, 100), true)
+            .build();
+        var source =
+            "{\"unknown\":{\"user_id\":1,\"nested\":[{\"utc_event_time\":null}]},\"payload\":{\"a\":[1,\"b\",true]},\"user_id\":2,\"utc_event_time\":\"2018-10-24T09:00:23+09:00\"}\n" +
+            "\n" +
+            "{\"user_id\":null,\"payload\":12.5,\"utc_event_time\":\"2018-10-25T13:16:00+09:00\",\"unknown\":[]}\n";
+        try (
+            var sr = new StringReader(source);
+            var lnr = new LineNumberReader(sr);
+            var reader = new JsonlReader(lnr);
+            var recordReader = new JsonlRecordReader(schema, reader)
+        ) {
+            var columns = schema.getColumns();
+            var record1 = recordReader.read();
+            assertEquals(LocalDate.of(2018, 10, 24), record1.getPartitionDate());
+            assertEquals(
+                new NonNullValue(columns.get(0), new PrimitiveValue.LongValue(1540339223000L)),
+                record1.getValue(0));
+            assertEquals(
+                new NonNullValue(columns.get(1), new PrimitiveValue.LongValue(2L)),
+                record1.getValue(1));
+            assertEquals(
+                new NonNullValue(columns.get(2), new PrimitiveValue.BinaryValue(Binary.fromString("{\"a\":[1,\"b\",true]}"))),
+                record1.getValue(2));
+            var record2 = recordReader.read();
+            assertEquals(LocalDate.of(2018, 10, 25), record2.getPartitionDate());
+            assertEquals(new NullValue(), record2.getValue(1));
+            assertEquals(
+                new NonNullValue(columns.get(2), new PrimitiveValue.BinaryValue(Binary.fromString("12.5"))),
+                record2.getValue(2));
+            var eof = recordReader.read();
+            assertNull(eof);
+        }
+    }
+
+    @Test
+    void readStringsFromSourceBytes() throws BadSchemaError, IOException {
+        var schema = new Schema.Builder("dummy_schema", "dummy_table")
+            .addTimestampColumn("utc_event_time", new UnsizedValueType(ValueKind.TIMESTAMP), false, ZoneOffset.ofHours(9))
+            .addColumn("name", new SizedValueType(ValueKind.STRING, 100), true)
+            .addColumn("payload", new SizedValueType(ValueKind.STRING, 100), true)
+            .build();
+        var source =
+            "{\"name\":\"h\u00e9llo \ud83c\udf63\",\"payload\":{\"a\": [1, \"\\u00e9\"]},\"utc_event_time\":\"2018-10-24T09:00:23+09:00\"}\n" +
+            "{\"name\":\"say \\\"hi\\\"\",\"payload\":12.5,\"utc_event_time\":\"2018-10-25T13:16:00+09:00\"}\n";
+        var bytes = ("XX" + source).getBytes(StandardCharsets.UTF_8);
+        try (
+            var reader = new JsonlReader(bytes, 2, bytes.length - 2);
+            var recordReader = new JsonlRecordReader(schema, reader)
+        ) {
+            var columns = schema.getColumns();
+            var record1 = recordReader.read();
+            assertEquals(
+                new NonNullValue(columns.get(1), new PrimitiveValue.BinaryValue(Binary.fromString("h\u00e9llo \ud83c\udf63"))),
+                record1.getValue(1));
+            assertEquals(
+                new NonNullValue(columns.get(2), new PrimitiveValue.BinaryValue(Binary.fromString("{\"a\":[1,\"\u00e9\"]}"))),
+                record1.getValue(2));
+            var record2 = recordReader.read();
+            assertEquals(LocalDate.of(2018, 10, 25), record2.getPartitionDate());
+            assertEquals(
+                new NonNullValue(columns.get(1), new PrimitiveValue.BinaryValue(Binary.fromString("say \"hi\""))),
+                record2.getValue(1));
+            assertEquals(
+                new NonNullValue(columns.get(2), new PrimitiveValue.BinaryValue(Binary.fromString("12.5"))),
+                record2.getValue(2));
+            assertNull(recordReader.read());
+        }
+    }
+
+    @Test
+    void readNestedValuesRegardlessOfSource() throws BadSchemaError, IOException {
+        var schema = new Schema.Builder("dummy_schema", "dummy_table")
+            .addTimestampColumn("utc_event_time", new UnsizedValueType(ValueKind.TIMESTAMP), false, ZoneOffset.ofHours(9))
+            .addColumn("payload", new SizedValueType(ValueKind.STRING, 100), true)
+            .build();
+        var source = "{\"payload\":{ \"a\" : [1, \"\\u00e9\", {\"b\":null}] },\"utc_event_time\":\"2018-10-24T09:00:23+09:00\"}\n";
+        var bytes = source.getBytes(StandardCharsets.UTF_8);
+        var expected = new NonNullValue(schema.getColumns().get(1), new PrimitiveValue.BinaryValue(Binary.fromString("{\"a\":[1,\"\u00e9\",{\"b\":null}]}")));
+        try (
+            var reader = new JsonlReader(bytes, 0, bytes.length);
+            var recordReader = new JsonlRecordReader(schema, reader)
+        ) {
+            assertEquals(expected, recordReader.read().getValue(1));
+        }
+        try (
+            var reader = new JsonlReader(new ByteArrayInputStream(bytes));
+            var recordReader = new JsonlRecordReader(schema, reader)
+        ) {
+            assertEquals(expected, recordReader.read().getValue(1));
+        }
+    }
 }
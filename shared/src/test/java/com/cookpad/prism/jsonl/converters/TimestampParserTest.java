@@ -0,0 +1,54 @@
+package com.cookpad.prism.jsonl.converters;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+
+import org.junit.jupiter.api.Test;
+
+public class TimestampParserTest {
+    private void assertSameAsJdk(TimestampParser parser, String text) {
+        var odt = OffsetDateTime.parse(text);
+        parser.parse(text);
+        assertEquals(odt.toInstant().toEpochMilli(), parser.getEpochMilli(), text);
+        assertEquals(odt.toLocalDate(), parser.getLocalDate(), text);
+    }
+
+    @Test
+    void parseSameAsJdk() {
+        var parser = new TimestampParser();
+        assertSameAsJdk(parser, "2018-10-24T09:00:23+09:00");
+        // The cached date with another offset
+        assertSameAsJdk(parser, "2018-10-24T09:00:23-05:30");
+        assertSameAsJdk(parser, "2018-10-24T23:59:59.999Z");
+        assertSameAsJdk(parser, "2018-10-25T00:00:00.1+09:00");
+        assertSameAsJdk(parser, "2018-10-25T00:00:00.123456789+09:00");
+        assertSameAsJdk(parser, "2020-02-29T12:00:00Z");
+        // Forms left to the JDK parser
+        assertSameAsJdk(parser, "2018-10-25T00:00+09:00");
+        assertSameAsJdk(parser, "2018-10-25T00:00:00+09:00:30");
+        assertSameAsJdk(parser, "+12018-10-25T00:00:00Z");
+        assertSameAsJdk(parser, "2018-10-25T00:00:00+18:00");
+    }
+
+    @Test
+    void clampBeforeEpoch() {
+        var parser = new TimestampParser();
+        parser.parse("1969-12-31T23:59:59.999Z");
+        assertEquals(0, parser.getEpochMilli());
+        assertEquals(LocalDate.of(1970, 1, 1), parser.getLocalDate());
+        parser.parse("1960-01-01T00:00:00-05:00");
+        assertEquals(0, parser.getEpochMilli());
+        assertEquals(LocalDate.of(1969, 12, 31), parser.getLocalDate());
+    }
+
+    @Test
+    void rejectInvalidTimestamps() {
+        var parser = new TimestampParser();
+        assertThrows(UnexpectedValueType.class, () -> parser.parse("2018-02-30T00:00:00Z"));
+        assertThrows(UnexpectedValueType.class, () -> parser.parse("2018-10-24T24:00:00Z"));
+        assertThrows(UnexpectedValueType.class, () -> parser.parse("2018-10-24T09:00:23"));
+        assertThrows(UnexpectedValueType.class, () -> parser.parse("2018-10-24 09:00:23Z"));
+    }
+}
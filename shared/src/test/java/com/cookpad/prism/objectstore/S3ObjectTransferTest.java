@@ -0,0 +1,147 @@
+package com.cookpad.prism.objectstore;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import lombok.val;
+
+public class S3ObjectTransferTest {
+    static final int PART_SIZE = (int)S3ObjectTransfer.MIN_PART_SIZE;
+
+    @Test
+    void downloadByRanges() throws IOException {
+        val content = new byte[PART_SIZE * 2 + 100];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte)(i % 251);
+        }
+        val s3 = mock(AmazonS3.class);
+        when(s3.getObject(any(GetObjectRequest.class))).thenAnswer((invocation) -> {
+            GetObjectRequest req = invocation.getArgument(0);
+            long[] range = req.getRange();
+            int end = (int)Math.min(range[1], content.length - 1);
+            val metadata = new ObjectMetadata();
+            metadata.setHeader("Content-Range", String.format("bytes %d-%d/%d", range[0], end, content.length));
+            val object = new S3Object();
+            object.setObjectMetadata(metadata);
+            object.setObjectContent(new ByteArrayInputStream(Arrays.copyOfRange(content, (int)range[0], end + 1)));
+            return object;
+        });
+        val transfer = new S3ObjectTransfer(s3, PART_SIZE, 3);
+        val dest = Files.createTempFile("prism-transfer-test-", ".parquet");
+        try {
+            transfer.download("bucket", "key", dest);
+            assertArrayEquals(content, Files.readAllBytes(dest));
+            verify(s3, times(3)).getObject(any(GetObjectRequest.class));
+        } finally {
+            Files.delete(dest);
+            transfer.shutdown();
+        }
+    }
+
+    @Test
+    void downloadAgainIfOverwritten() throws IOException {
+        val oldContent = new byte[PART_SIZE + 100];
+        val newContent = new byte[PART_SIZE + 200];
+        Arrays.fill(newContent, (byte)1);
+        val s3 = mock(AmazonS3.class);
+        val firstParts = new AtomicInteger();
+        when(s3.getObject(any(GetObjectRequest.class))).thenAnswer((invocation) -> {
+            GetObjectRequest req = invocation.getArgument(0);
+            long[] range = req.getRange();
+            // overwritten right after the first part is read
+            boolean overwritten = range[0] > 0 || firstParts.incrementAndGet() > 1;
+            byte[] content = overwritten ? newContent : oldContent;
+            String eTag = overwritten ? "new" : "old";
+            if (range[0] > 0 && !req.getMatchingETagConstraints().equals(List.of(eTag))) {
+                return null;
+            }
+            int end = (int)Math.min(range[1], content.length - 1);
+            val metadata = new ObjectMetadata();
+            metadata.setHeader("Content-Range", String.format("bytes %d-%d/%d", range[0], end, content.length));
+            metadata.setHeader("ETag", eTag);
+            val object = new S3Object();
+            object.setObjectMetadata(metadata);
+            object.setObjectContent(new ByteArrayInputStream(Arrays.copyOfRange(content, (int)range[0], end + 1)));
+            return object;
+        });
+        val transfer = new S3ObjectTransfer(s3, PART_SIZE, 3);
+        val dest = Files.createTempFile("prism-transfer-test-", ".parquet");
+        try {
+            transfer.download("bucket", "key", dest);
+            assertArrayEquals(newContent, Files.readAllBytes(dest));
+            verify(s3, times(4)).getObject(any(GetObjectRequest.class));
+        } finally {
+            Files.delete(dest);
+            transfer.shutdown();
+        }
+    }
+
+    @Test
+    void downloadEmpty() throws IOException {
+        val s3 = mock(AmazonS3.class);
+        val notSatisfiable = new AmazonS3Exception("The requested range is not satisfiable");
+        notSatisfiable.setStatusCode(416);
+        when(s3.getObject(any(GetObjectRequest.class))).thenThrow(notSatisfiable);
+        val transfer = new S3ObjectTransfer(s3, PART_SIZE, 3);
+        val dest = Files.createTempFile("prism-transfer-test-", ".parquet");
+        try {
+            Files.write(dest, new byte[] { 1 });
+            transfer.download("bucket", "key", dest);
+            assertEquals(0, Files.size(dest));
+        } finally {
+            Files.delete(dest);
+            transfer.shutdown();
+        }
+    }
+
+    @Test
+    void multipartUpload() throws IOException {
+        val s3 = mock(AmazonS3.class);
+        val initiated = new InitiateMultipartUploadResult();
+        initiated.setUploadId("upload-id");
+        when(s3.initiateMultipartUpload(any(InitiateMultipartUploadRequest.class))).thenReturn(initiated);
+        when(s3.uploadPart(any(UploadPartRequest.class))).thenAnswer((invocation) -> {
+            UploadPartRequest req = invocation.getArgument(0);
+            val result = new UploadPartResult();
+            result.setPartNumber(req.getPartNumber());
+            result.setETag("etag-" + req.getPartNumber() + "-" + req.getPartSize());
+            return result;
+        });
+        val transfer = new S3ObjectTransfer(s3, PART_SIZE, 3);
+        val file = Files.createTempFile("prism-transfer-test-", ".parquet");
+        try {
+            Files.write(file, new byte[PART_SIZE * 2 + 100]);
+            transfer.upload("bucket", "key", file.toFile());
+            val captor = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+            verify(s3).completeMultipartUpload(captor.capture());
+            List<String> etags = captor.getValue().getPartETags().stream().map(PartETag::getETag).collect(Collectors.toList());
+            assertEquals(List.of("etag-1-" + PART_SIZE, "etag-2-" + PART_SIZE, "etag-3-100"), etags);
+        } finally {
+            Files.delete(file);
+            transfer.shutdown();
+        }
+    }
+}
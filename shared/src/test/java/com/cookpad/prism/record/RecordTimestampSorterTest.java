@@ -0,0 +1,43 @@
+package com.cookpad.prism.record;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+public class RecordTimestampSorterTest {
+    private int[] stableSortedIndexes(long[] keys) {
+        return IntStream.range(0, keys.length)
+            .boxed()
+            .sorted(Comparator.comparingLong((Integer i) -> keys[i]))
+            .mapToInt(Integer::intValue)
+            .toArray();
+    }
+
+    @Test
+    void sortSameAsStableSort() {
+        var random = new Random(1);
+        var keys = new long[10000];
+        for (int i = 0; i < keys.length; i++) {
+            // Timestamps in a few hours with many duplicates
+            keys[i] = 1540339200000L + random.nextInt(3600) * 3000L;
+        }
+        assertArrayEquals(stableSortedIndexes(keys), RecordTimestampSorter.sortedIndexes(keys));
+    }
+
+    @Test
+    void sortNegativeAndExtremeValues() {
+        long[] keys = {3, -1, Long.MAX_VALUE, 0, Long.MIN_VALUE, -1, 1L << 40};
+        assertArrayEquals(new int[] {4, 1, 5, 3, 0, 6, 2}, RecordTimestampSorter.sortedIndexes(keys));
+    }
+
+    @Test
+    void keepSortedInput() {
+        long[] keys = {1, 2, 2, 5};
+        assertArrayEquals(new int[] {0, 1, 2, 3}, RecordTimestampSorter.sortedIndexes(keys));
+        assertArrayEquals(new int[] {}, RecordTimestampSorter.sortedIndexes(new long[0]));
+    }
+}
@@ -0,0 +1,60 @@
+package com.cookpad.prism.record;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.format.converter.ParquetMetadataConverter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import com.cookpad.prism.TempFile;
+import com.cookpad.prism.record.Schema.Builder.BadSchemaError;
+import com.cookpad.prism.record.values.NonNullValue;
+import com.cookpad.prism.record.values.PrimitiveValue;
+import org.junit.jupiter.api.Test;
+
+public class WriterProfilesTest {
+    @Test
+    void parseProfiles() {
+        var profiles = WriterProfiles.parse("{\"small_object\": {\"row_group_size\": 8388608, \"page_size\": 65536}, \"merged_object\": {\"codec\": \"GZIP\", \"dictionary\": false}}");
+        var smallObject = profiles.get(WriterProfile.Purpose.SMALL_OBJECT);
+        assertNull(smallObject.getCodec());
+        assertEquals(8388608, smallObject.getRowGroupSize());
+        assertEquals(65536, smallObject.getPageSize());
+        var mergedObject = profiles.get(WriterProfile.Purpose.MERGED_OBJECT);
+        assertEquals(CompressionCodecName.GZIP, mergedObject.getCodec());
+        assertEquals(false, mergedObject.getDictionary());
+
+        // Missing purposes use the default
+        assertEquals(WriterProfile.DEFAULT, WriterProfiles.parse("{\"small_object\": {}}").get(WriterProfile.Purpose.MERGED_OBJECT));
+        assertEquals(WriterProfiles.DEFAULT, WriterProfiles.parse(null));
+    }
+
+    @Test
+    void rejectInvalidProfiles() {
+        assertThrows(IllegalArgumentException.class, () -> WriterProfiles.parse("{\"merged_object\": {\"codec\": \"LZO\"}}"));
+        assertThrows(IllegalArgumentException.class, () -> WriterProfiles.parse("{\"merged_object\": {\"codec\": \"NONE\"}}"));
+        assertThrows(IllegalArgumentException.class, () -> WriterProfiles.parse("{\"small_object\": {\"page_size\": 0}}"));
+        assertThrows(IllegalArgumentException.class, () -> WriterProfiles.parse("["));
+    }
+
+    @Test
+    void buildWriterWithProfile() throws BadSchemaError, IOException {
+        var schema = new Schema.Builder("dummy_schema", "dummy_table")
+            .addTimestampColumn("utc_event_time", new UnsizedValueType(ValueKind.TIMESTAMP), false, ZoneOffset.UTC)
+            .build();
+        var conf = new Configuration();
+        var profile = new WriterProfile(CompressionCodecName.GZIP, 1024 * 1024, 8192, false);
+        try (var file = new TempFile("prism-test-", ".parquet")) {
+            try (var writer = new RecordWriterFactory(conf).build(schema, file.getPath(), profile)) {
+                var value = new NonNullValue(schema.getColumns().get(0), new PrimitiveValue.LongValue(1000L));
+                writer.write(new ValueListRecord(List.of(value)));
+            }
+            var footer = ParquetFileReader.readFooter(conf, new org.apache.hadoop.fs.Path(file.getPath().toString()), ParquetMetadataConverter.NO_FILTER);
+            assertEquals(CompressionCodecName.GZIP, footer.getBlocks().get(0).getColumns().get(0).getCodec());
+        }
+    }
+}
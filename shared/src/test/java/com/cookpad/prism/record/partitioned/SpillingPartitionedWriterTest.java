@@ -0,0 +1,141 @@
+package com.cookpad.prism.record.partitioned;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import com.cookpad.prism.TempFile;
+import com.cookpad.prism.record.Record;
+import com.cookpad.prism.record.RecordReaderFactory;
+import com.cookpad.prism.record.RecordWriterFactory;
+import com.cookpad.prism.record.Schema;
+import com.cookpad.prism.record.UnsizedValueType;
+import com.cookpad.prism.record.ValueKind;
+import com.cookpad.prism.record.ValueListRecord;
+import com.cookpad.prism.record.Schema.Builder.BadSchemaError;
+import com.cookpad.prism.record.values.NonNullValue;
+import com.cookpad.prism.record.values.PrimitiveValue;
+import com.cookpad.prism.record.values.Value;
+import org.junit.jupiter.api.Test;
+
+import static org.mockito.Mockito.*;
+
+public class SpillingPartitionedWriterTest {
+    private DateAttachedRecord record(Schema schema, long ts, long id) {
+        var columns = schema.getColumns();
+        List<Value> values = List.of(
+            new NonNullValue(columns.get(0), new PrimitiveValue.LongValue(ts * 1000)),
+            new NonNullValue(columns.get(1), new PrimitiveValue.LongValue(id))
+        );
+        var dt = LocalDate.ofEpochDay(ts / 86400);
+        return new DateAttachedRecord(new ValueListRecord(values), dt);
+    }
+
+    private List<Long> readIds(RecordReaderFactory readerFactory, Schema schema, java.nio.file.Path path) throws IOException {
+        var ids = new ArrayList<Long>();
+        try (var reader = readerFactory.build(schema, path)) {
+            Record record;
+            while ((record = reader.read()) != null) {
+                var value = (NonNullValue)record.getValue(1);
+                ids.add((Long)value.getInner().getValue());
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    void spillAndMerge() throws BadSchemaError, IOException {
+        var schema = new Schema.Builder("dummy_schema", "dummy_table")
+            .addTimestampColumn("utc_event_time", new UnsizedValueType(ValueKind.TIMESTAMP), false, ZoneOffset.UTC)
+            .addColumn("id", new UnsizedValueType(ValueKind.BIGINT), false)
+            .build();
+        var conf = new Configuration();
+        var writerFactory = new RecordWriterFactory(conf);
+        var readerFactory = new RecordReaderFactory(conf);
+        var tempFileFactory = new TempFile.Factory("prism-test-", ".parquet");
+
+        // id is the expected position in each partition
+        long day = 86400;
+        long[][] inputs = {
+            {day + 30, 3}, {10, 1}, {day + 10, 1}, {20, 2},
+            {day + 20, 2}, {0, 0}, {day + 0, 0}, {30, 3},
+            {day + 40, 4}, {day + 40, 5},
+        };
+        try (var collector = new PartitionCollector()) {
+            // budget is small enough to spill every 2 records
+            try (var writer = new SpillingPartitionedWriter(writerFactory, readerFactory, tempFileFactory, collector, schema, 300)) {
+                for (long[] input : inputs) {
+                    writer.write(this.record(schema, input[0], input[1]));
+                }
+                writer.commit();
+            }
+            var partitions = collector.collect();
+            assertEquals(2, partitions.size());
+            assertEquals(List.of(0L, 1L, 2L, 3L), this.readIds(readerFactory, schema, partitions.get(LocalDate.ofEpochDay(0))));
+            assertEquals(List.of(0L, 1L, 2L, 3L, 4L, 5L), this.readIds(readerFactory, schema, partitions.get(LocalDate.ofEpochDay(1))));
+        }
+    }
+
+    @Test
+    void abortWithoutCommit() throws BadSchemaError, IOException {
+        var schema = new Schema.Builder("dummy_schema", "dummy_table")
+            .addTimestampColumn("utc_event_time", new UnsizedValueType(ValueKind.TIMESTAMP), false, ZoneOffset.UTC)
+            .addColumn("id", new UnsizedValueType(ValueKind.BIGINT), false)
+            .build();
+        var conf = new Configuration();
+        var tempFileFactory = new TempFile.Factory("prism-test-", ".parquet");
+        var closedFiles = new ArrayList<LocalDate>();
+        try (var collector = new PartitionCollector()) {
+            // spills every 2 records
+            try (var writer = new SpillingPartitionedWriter(new RecordWriterFactory(conf), new RecordReaderFactory(conf), tempFileFactory, collector, schema, 300, (dt, path) -> closedFiles.add(dt))) {
+                for (long i = 0; i < 5; i++) {
+                    writer.write(this.record(schema, i * 86400, i));
+                }
+                // e.g. reading input failed here
+            }
+            assertTrue(collector.collect().isEmpty());
+            assertTrue(closedFiles.isEmpty());
+        }
+    }
+
+    @Test
+    void cleanUpRunsIfSpillFails() throws BadSchemaError, IOException {
+        var schema = new Schema.Builder("dummy_schema", "dummy_table")
+            .addTimestampColumn("utc_event_time", new UnsizedValueType(ValueKind.TIMESTAMP), false, ZoneOffset.UTC)
+            .addColumn("id", new UnsizedValueType(ValueKind.BIGINT), false)
+            .build();
+        var conf = new Configuration();
+        var writerFactory = spy(new RecordWriterFactory(conf));
+        var spillFiles = new ArrayList<java.nio.file.Path>();
+        // The 4th spill file hits disk full; the 3rd one belongs to the same run
+        doAnswer((invocation) -> {
+            spillFiles.add(invocation.getArgument(1));
+            if (spillFiles.size() == 4) {
+                throw new IOException("No space left on device");
+            }
+            return invocation.callRealMethod();
+        }).when(writerFactory).build(any(), any());
+        var tempFileFactory = new TempFile.Factory("prism-test-", ".parquet");
+        try (var collector = new PartitionCollector()) {
+            var e = assertThrows(IOException.class, () -> {
+                // spills every 2 records, each run has 2 dates
+                try (var writer = new SpillingPartitionedWriter(writerFactory, new RecordReaderFactory(conf), tempFileFactory, collector, schema, 300)) {
+                    for (long i = 0; i < 6; i++) {
+                        writer.write(this.record(schema, (i % 2) * 86400 + i, i));
+                    }
+                    writer.commit();
+                }
+            });
+            assertEquals("No space left on device", e.getMessage());
+        }
+        assertEquals(4, spillFiles.size());
+        for (var path : spillFiles) {
+            assertFalse(path.toFile().exists(), path.toString());
+        }
+    }
+}
@@ -2,9 +2,13 @@ package com.cookpad.prism.stream;
 
 import java.io.IOException;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
@@ -15,11 +19,15 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.RawLocalFileSystem;
 import com.cookpad.prism.Banner;
+import com.cookpad.prism.CachingSchemaBuilder;
+import com.cookpad.prism.ExpiringCache;
 import com.cookpad.prism.SchemaBuilder;
 import com.cookpad.prism.StepHandler;
 import com.cookpad.prism.objectstore.PrismObjectStoreFactory;
 import com.cookpad.prism.objectstore.PrismTableLocatorFactory;
+import com.cookpad.prism.objectstore.S3ObjectTransfer;
 import com.cookpad.prism.objectstore.StagingObjectStore;
+import com.cookpad.prism.record.RecordReaderFactory;
 import com.cookpad.prism.record.RecordWriterFactory;
 import com.cookpad.prism.stream.events.DateRange;
 import com.cookpad.prism.stream.events.EventHandler;
@@ -27,9 +35,17 @@ import com.cookpad.prism.stream.events.SqsEventDispatcher;
 import com.cookpad.prism.stream.events.StagingObjectDispatcher;
 import com.cookpad.prism.stream.events.StagingObjectHandler;
 import com.cookpad.prism.stream.filequeue.S3QueueDownloader;
+import com.cookpad.prism.dao.OneToMany;
+import com.cookpad.prism.dao.OneToOne;
+import com.cookpad.prism.dao.PacketStream;
 import com.cookpad.prism.dao.PacketStreamMapper;
+import com.cookpad.prism.dao.PrismMergeJobMapper;
+import com.cookpad.prism.dao.PrismPartitionMapper;
+import com.cookpad.prism.dao.PrismSmallObjectMapper;
 import com.cookpad.prism.dao.PrismStagingObjectMapper;
+import com.cookpad.prism.dao.PrismTable;
 import com.cookpad.prism.dao.PrismUnknownStagingObjectMapper;
+import com.cookpad.prism.dao.StreamColumn;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.ApplicationArguments;
@@ -71,8 +87,14 @@ public class Main {
     }
 
     @Bean
-    public PrismObjectStoreFactory prismObjectStoreFactory(@Autowired AmazonS3 s3, @Autowired PrismStreamConf prismConf, @Autowired PrismTableLocatorFactory tablePrefixer) {
-        return new PrismObjectStoreFactory(s3, tablePrefixer);
+    public S3ObjectTransfer s3ObjectTransfer(@Autowired AmazonS3 s3, @Autowired PrismStreamConf prismConf) {
+        var transferConf = prismConf.getS3Transfer();
+        return new S3ObjectTransfer(s3, transferConf.getPartSize(), transferConf.getConcurrency());
+    }
+
+    @Bean
+    public PrismObjectStoreFactory prismObjectStoreFactory(@Autowired AmazonS3 s3, @Autowired PrismStreamConf prismConf, @Autowired PrismTableLocatorFactory tablePrefixer, @Autowired S3ObjectTransfer s3ObjectTransfer) {
+        return new PrismObjectStoreFactory(s3, tablePrefixer, s3ObjectTransfer);
     }
 
     @Bean
@@ -81,13 +103,47 @@ public class Main {
     }
 
     @Bean
-    public SchemaBuilder schemaBuilder() {
-        return new SchemaBuilder();
+    public SchemaBuilder schemaBuilder(@Autowired PrismStreamConf prismConf) {
+        return new CachingSchemaBuilder(Duration.ofSeconds(prismConf.getMetadataCacheTtl()));
+    }
+
+    @Bean
+    public StagingObjectHandler stagingObjectHandler(
+        @Autowired RecordWriterFactory recordWriterFactory,
+        @Autowired RecordReaderFactory recordReaderFactory,
+        @Autowired StagingObjectStore stagingObjectStore,
+        @Autowired PrismSmallObjectMapper smallObjectMapper,
+        @Autowired PrismPartitionMapper partitionMapper,
+        @Autowired PrismMergeJobMapper mergeJobMapper,
+        @Autowired PrismObjectStoreFactory prismObjectStoreFactory,
+        @Autowired SchemaBuilder schemaBuilder,
+        @Autowired Clock clock,
+        @Autowired PrismStreamConf prismConf
+    ) {
+        // Shared by all worker threads
+        ExecutorService convertExecutor = Executors.newFixedThreadPool(Math.max(prismConf.getConvertThreads(), 1), DaemonThreadFactory.instance);
+        ExecutorService uploadExecutor = Executors.newFixedThreadPool(Math.max(prismConf.getUploadThreads(), 1), DaemonThreadFactory.instance);
+        return new ParquetConverter(recordWriterFactory, recordReaderFactory, stagingObjectStore, smallObjectMapper, partitionMapper, mergeJobMapper, prismObjectStoreFactory, schemaBuilder, clock, prismConf, convertExecutor, uploadExecutor);
     }
 
     @Bean
     public SqsEventDispatcher sqsEventDispatcher(@Autowired AmazonSQS sqs, @Autowired EventHandler eventHandler, @Autowired PrismStreamConf prismConf) {
-        return new SqsEventDispatcher(sqs, prismConf.getQueueUrl(), eventHandler, Clock.systemDefaultZone());
+        int workerThreads = prismConf.getWorkerThreads();
+        ExecutorService workerExecutor = Executors.newFixedThreadPool(workerThreads, DaemonThreadFactory.instance);
+        return new SqsEventDispatcher(sqs, prismConf.getQueueUrl(), eventHandler, Clock.systemDefaultZone(), workerExecutor, workerThreads, prismConf.getVisibilityTimeout());
+    }
+
+    static class DaemonThreadFactory implements ThreadFactory {
+        static final DaemonThreadFactory instance = new DaemonThreadFactory();
+
+        final ThreadFactory original = Executors.defaultThreadFactory();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            var th = original.newThread(r);
+            th.setDaemon(true);
+            return th;
+        }
     }
 
     @Bean
@@ -121,6 +177,11 @@ public class Main {
         return new RecordWriterFactory(hadoopConf);
     }
 
+    @Bean
+    public RecordReaderFactory recordReaderFactory(@Autowired Configuration hadoopConf) {
+        return new RecordReaderFactory(hadoopConf);
+    }
+
     @Bean
     public Clock clock() {
         return Clock.systemDefaultZone();
@@ -138,7 +199,8 @@ public class Main {
             Optional.ofNullable(prismConf.getIgnoreToInclusive()).map(LocalDate::parse));
         boolean isIn = ignoreDateRange.contains(LocalDate.of(2018, 10, 1));
         System.out.println(isIn);
-        return new StagingObjectDispatcher(stagingObjectHandler, stagingObjectMapper, unknownStagingObjectMapper, packetStreamMapper, ignoreDateRange);
+        var streamCache = new ExpiringCache<List<String>, List<OneToOne<OneToMany<PacketStream, StreamColumn>, PrismTable>>>(Duration.ofSeconds(prismConf.getMetadataCacheTtl()));
+        return new StagingObjectDispatcher(stagingObjectHandler, stagingObjectMapper, unknownStagingObjectMapper, packetStreamMapper, ignoreDateRange, streamCache);
     }
 
     @Bean
@@ -3,35 +3,37 @@ package com.cookpad.prism.stream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.time.Clock;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
-import java.util.TreeMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.zip.GZIPInputStream;
-import java.time.LocalDate;
 
 import com.cookpad.prism.SchemaBuilder;
 import com.cookpad.prism.TempFile;
 import com.cookpad.prism.SchemaBuilder.BadColumnsError;
+import com.cookpad.prism.jsonl.ChunkedJsonlRecordReader;
 import com.cookpad.prism.jsonl.JsonlReader;
 import com.cookpad.prism.jsonl.JsonlRecordReader;
 import com.cookpad.prism.objectstore.PrismObjectStore;
 import com.cookpad.prism.objectstore.PrismObjectStoreFactory;
 import com.cookpad.prism.objectstore.StagingObjectStore;
-import com.cookpad.prism.record.RecordTimestampComparator;
+import com.cookpad.prism.record.RecordReaderFactory;
 import com.cookpad.prism.record.RecordWriterFactory;
 import com.cookpad.prism.record.Schema;
 import com.cookpad.prism.stream.events.StagingObjectHandler;
-import com.cookpad.prism.record.partitioned.PartitionedRecordWriter;
-import com.cookpad.prism.record.partitioned.SortedPartitionedWriter;
+import com.cookpad.prism.record.partitioned.SpillingPartitionedWriter;
 import com.cookpad.prism.record.partitioned.DateAttachedRecord;
+import com.cookpad.prism.record.partitioned.DateAttachedRecordReader;
 import com.cookpad.prism.record.partitioned.PartitionCollector;
 import com.cookpad.prism.dao.OneToMany;
 import com.cookpad.prism.dao.PacketStream;
@@ -43,17 +45,16 @@ import com.cookpad.prism.dao.PrismSmallObjectMapper;
 import com.cookpad.prism.dao.PrismStagingObject;
 import com.cookpad.prism.dao.PrismTable;
 import com.cookpad.prism.dao.StreamColumn;
-import org.springframework.stereotype.Component;
 
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 @RequiredArgsConstructor
-@Component
 @Slf4j
 public class ParquetConverter implements StagingObjectHandler {
     private final RecordWriterFactory recordWriterFactory;
+    private final RecordReaderFactory recordReaderFactory;
     private final StagingObjectStore stagingObjectStore;
     private final PrismSmallObjectMapper smallObjectMapper;
     private final PrismPartitionMapper partitionMapper;
@@ -61,6 +62,9 @@ public class ParquetConverter implements StagingObjectHandler {
     private final PrismObjectStoreFactory prismObjectStoreFactory;
     private final SchemaBuilder schemaBuilder;
     private final Clock clock;
+    private final PrismStreamConf prismConf;
+    private final ExecutorService convertExecutor;
+    private final ExecutorService uploadExecutor;
 
     // FIXME: fixed lower bound: 2018-01-01 (inclusive)
     static final LocalDate PARTITION_DATE_LOWER_BOUND = LocalDate.of(2018, 1, 1);
@@ -74,22 +78,27 @@ public class ParquetConverter implements StagingObjectHandler {
             throw new UnknownObjectException(e);
         }
         TempFile.Factory tempFileFactory = new TempFile.Factory("prism-stream-", ".parquet");
+        PrismObjectStore prismObjectStore = this.prismObjectStoreFactory.create(table);
         try (PartitionCollector partitionCollector = new PartitionCollector()) {
-            ArrayList<DateAttachedRecord> recordsBuffer = new ArrayList<>(80000);
             try (
                 InputStream gzipped = stagingObjectStore.getStagingObject(stagingObject);
                 GZIPInputStream unzipped = new GZIPInputStream(gzipped);
-                InputStreamReader isr = new InputStreamReader(unzipped, StandardCharsets.UTF_8);
-                LineNumberReader lnr = new LineNumberReader(isr);
-                JsonlReader reader = new JsonlReader(lnr);
-                JsonlRecordReader recordReader = new JsonlRecordReader(schema, reader);
+                DateAttachedRecordReader recordReader = this.buildRecordReader(schema, unzipped);
+                SpillingPartitionedWriter writer = new SpillingPartitionedWriter(
+                    this.recordWriterFactory,
+                    this.recordReaderFactory,
+                    tempFileFactory,
+                    partitionCollector,
+                    schema,
+                    this.prismConf.getConvertMemoryBudget()
+                );
             ) {
                 DateAttachedRecord record;
                 long discarded = 0;
                 while ((record = recordReader.read()) != null) {
                     var dt = record.getPartitionDate();
                     if (dt.isAfter(PARTITION_DATE_LOWER_BOUND) || dt.isEqual(PARTITION_DATE_LOWER_BOUND)) {
-                        recordsBuffer.add(record);
+                        writer.write(record);
                     }
                     else {
                         discarded++;
@@ -98,46 +107,81 @@ public class ParquetConverter implements StagingObjectHandler {
                 if (discarded > 0) {
                     log.info("{}: too old records discarded: count={}", stagingObject.getObjectUri(), discarded);
                 }
+                // Date files are written only after the whole object is read;
+                // a partial small object would be merged and never fixed by a retry
+                writer.commit();
+            }
+            TreeMap<LocalDate, Path> files = partitionCollector.collect();
+            // No partitions is normal situation, do not warn it
+            if (files.isEmpty()) {
+                return;
             }
 
-            recordsBuffer.sort(new RecordTimestampComparator());
-
-            try (
-                PartitionedRecordWriter writer = new SortedPartitionedWriter(this.recordWriterFactory, tempFileFactory, partitionCollector, schema);
-            ) {
-                for (DateAttachedRecord record : recordsBuffer) {
-                    writer.write(record);
-                }
+            // Register all partitions and small objects of this staging object in two statements.
+            // Both are idempotent, so a retry of a failed object registers the same rows.
+            LocalDateTime now = LocalDateTime.ofInstant(clock.instant(), ZoneOffset.UTC);
+            Map<LocalDate, PrismPartition> partitions = new HashMap<>();
+            for (PrismPartition partition : this.partitionMapper.createPartitionsIfNotExist(table.getId(), new ArrayList<>(files.keySet()))) {
+                partitions.put(partition.getPartitionDate(), partition);
+            }
+            List<PrismSmallObject> newSmallObjects = new ArrayList<>();
+            for (Entry<LocalDate, Path> entry : files.entrySet()) {
+                PrismSmallObject smallObject = new PrismSmallObject();
+                smallObject.setStagingObjectId(stagingObject.getId());
+                smallObject.setPartitionId(partitions.get(entry.getKey()).getId());
+                smallObject.setContentLength(entry.getValue().toFile().length());
+                smallObject.setUploadStartTime(now);
+                newSmallObjects.add(smallObject);
+            }
+            Map<Long, PrismSmallObject> smallObjects = new HashMap<>();
+            for (PrismSmallObject smallObject : this.smallObjectMapper.findOrCreateAll(stagingObject.getId(), newSmallObjects)) {
+                smallObjects.put(smallObject.getPartitionId(), smallObject);
             }
 
-            PrismObjectStore prismObjectStore = this.prismObjectStoreFactory.create(table);
-            TreeMap<LocalDate, Path> partitions = partitionCollector.collect();
-            // This is normal situation, do not warn it
-            //if (partitions.size() == 0) {
-            //    log.error("No records in staging object: {}", stagingObject);
-            //}
-            for (Entry<LocalDate, Path> entry: partitions.entrySet()) {
+            // Date files are uploaded concurrently once registered; the small object decides live or delayed
+            List<CompletableFuture<Void>> uploads = new ArrayList<>();
+            for (Entry<LocalDate, Path> entry : files.entrySet()) {
                 LocalDate dt = entry.getKey();
                 File file = entry.getValue().toFile();
-                LocalDateTime now = LocalDateTime.ofInstant(clock.instant(), ZoneOffset.UTC);
-                PrismPartition partition = this.partitionMapper.createPartitionIfNotExists(table.getId(), dt);
-                long contentLength = file.length();
-                PrismSmallObject smallObject = this.smallObjectMapper.findOrCreateByParams(stagingObject.getId(), partition.getId(), now, contentLength);
-                if (smallObject.isDelayed()) {
-                    prismObjectStore.putDelayedObjectFile(dt, stagingObject.getId(), file);
-                } else {
-                    prismObjectStore.putLiveObjectFile(dt, stagingObject.getId(), file);
-                }
+                PrismSmallObject smallObject = smallObjects.get(partitions.get(dt).getId());
+                uploads.add(CompletableFuture.runAsync(() -> this.storePartitionFile(stagingObject, dt, smallObject, prismObjectStore, file), this.uploadExecutor));
+            }
+            // Waits for all uploads even if some fail, since temp files are deleted on return
+            CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[0])).join();
+
+            List<Long> partitionIdsToMerge = new ArrayList<>();
+            for (LocalDate dt : files.keySet()) {
                 if (isAcceptableDelay(dt, now)) {
-                    LocalDateTime scheduleTime = table.scheduleTime(now);
-                    this.mergeJobMapper.enqueue(partition.getId(), scheduleTime);
+                    partitionIdsToMerge.add(partitions.get(dt).getId());
                 }
             }
+            if (!partitionIdsToMerge.isEmpty()) {
+                LocalDateTime scheduleTime = table.scheduleTime(now);
+                this.mergeJobMapper.enqueueAll(partitionIdsToMerge, scheduleTime, now);
+            }
         } catch (IOException ex) {
             throw new RuntimeException("Encountered an error in converting JSONL to Parquet", ex);
         }
     }
 
+    // Runs on uploadExecutor
+    private void storePartitionFile(PrismStagingObject stagingObject, LocalDate dt, PrismSmallObject smallObject, PrismObjectStore prismObjectStore, File file) {
+        if (smallObject.isDelayed()) {
+            prismObjectStore.putDelayedObjectFile(dt, stagingObject.getId(), file);
+        } else {
+            prismObjectStore.putLiveObjectFile(dt, stagingObject.getId(), file);
+        }
+    }
+
+    // Parses chunks of a staging object on convertExecutor if multiple convert threads are given
+    private DateAttachedRecordReader buildRecordReader(Schema schema, InputStream unzipped) throws IOException {
+        int convertThreads = this.prismConf.getConvertThreads();
+        if (convertThreads > 1) {
+            return new ChunkedJsonlRecordReader(schema, unzipped, this.convertExecutor, this.prismConf.getConvertChunkSize(), convertThreads * 2);
+        }
+        return new JsonlRecordReader(schema, new JsonlReader(unzipped));
+    }
+
     static final long ACCEPTABLE_DELAY_DAYS = 14;
 
     static boolean isAcceptableDelay(LocalDate partitionDate, LocalDateTime now) {
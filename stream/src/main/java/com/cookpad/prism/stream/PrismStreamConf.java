@@ -18,4 +18,10 @@ public class PrismStreamConf extends PrismConf {
     String queueUrl;
     String ignoreToInclusive;
     String ignoreFromExclusive;
+    long convertMemoryBudget;
+    int convertThreads = 1;
+    int convertChunkSize = 4 * 1024 * 1024;
+    int uploadThreads = 1;
+    int workerThreads = 1;
+    int visibilityTimeout = 300;
 }
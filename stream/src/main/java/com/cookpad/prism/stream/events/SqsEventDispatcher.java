@@ -3,14 +3,28 @@ package com.cookpad.prism.stream.events;
 import java.io.IOException;
 import java.time.Clock;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import com.amazonaws.SdkClientException;
 import com.amazonaws.services.s3.event.S3EventNotification;
 import com.amazonaws.services.s3.event.S3EventNotification.S3Entity;
 import com.amazonaws.services.s3.event.S3EventNotification.S3EventNotificationRecord;
 import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
 import com.amazonaws.services.sqs.model.Message;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
 import com.amazonaws.services.sqs.model.ReceiveMessageResult;
@@ -18,16 +32,51 @@ import com.amazonaws.services.sqs.model.ReceiveMessageResult;
 import com.cookpad.prism.StepHandler;
 
 import io.sentry.Sentry;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
-@RequiredArgsConstructor
 @Slf4j
 public class SqsEventDispatcher implements StepHandler {
     final private AmazonSQS sqs;
     final private String queueUrl;
     final private EventHandler eventHandler;
     final private Clock clock;
+    // null to handle messages on the caller thread
+    final private ExecutorService workerExecutor;
+    // number of messages being handled at once; no more messages are received than free slots
+    final private Semaphore workerSlots;
+    final private int visibilityTimeout;
+    // messages being handled, keyed by receipt handle; their visibility is extended periodically
+    final private Map<String, Message> inFlightMessages = new ConcurrentHashMap<>();
+    // finished messages waiting to be deleted in a batch; their visibility is no longer extended
+    final private List<Message> pendingDeletions = new ArrayList<>();
+    final private ScheduledExecutorService heartbeatExecutor;
+
+    static final int MAX_NUMBER_OF_MESSAGES = 10;
+    static final int DEFAULT_VISIBILITY_TIMEOUT = 300;
+    // max time a finished message waits for others to fill a delete batch
+    static final long DELETE_INTERVAL_MILLIS = 1000;
+
+    public SqsEventDispatcher(AmazonSQS sqs, String queueUrl, EventHandler eventHandler, Clock clock) {
+        this(sqs, queueUrl, eventHandler, clock, null, 1, DEFAULT_VISIBILITY_TIMEOUT);
+    }
+
+    public SqsEventDispatcher(AmazonSQS sqs, String queueUrl, EventHandler eventHandler, Clock clock, ExecutorService workerExecutor, int workerThreads, int visibilityTimeout) {
+        this.sqs = sqs;
+        this.queueUrl = queueUrl;
+        this.eventHandler = eventHandler;
+        this.clock = clock;
+        this.workerExecutor = workerExecutor;
+        this.workerSlots = new Semaphore(workerThreads);
+        this.visibilityTimeout = visibilityTimeout;
+        this.heartbeatExecutor = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread th = new Thread(r, "sqs-visibility-heartbeat");
+            th.setDaemon(true);
+            return th;
+        });
+        long heartbeatInterval = Math.max(visibilityTimeout / 3, 1);
+        this.heartbeatExecutor.scheduleAtFixedRate(this::extendVisibility, heartbeatInterval, heartbeatInterval, TimeUnit.SECONDS);
+        this.heartbeatExecutor.scheduleWithFixedDelay(this::flushDeletions, DELETE_INTERVAL_MILLIS, DELETE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
 
     @SuppressWarnings("serial")
     public static class ExtractException extends Exception {
@@ -83,37 +132,166 @@ public class SqsEventDispatcher implements StepHandler {
         }
     }
 
-    private void receiveAndDispatch() {
-        final ReceiveMessageRequest req = new ReceiveMessageRequest(this.queueUrl);
-        req.setVisibilityTimeout(1200);
-        req.setMaxNumberOfMessages(10);
-        req.setWaitTimeSeconds(20);
+    // Returns true if the message should be deleted
+    private boolean dispatchMessage(Instant receiveTime, Message msg) {
+        try {
+            this.handleMessage(receiveTime, msg);
+        } catch (EventHandler.CatchAndReleaseException e) {
+            // catch and release
+            return false;
+        } catch (Exception e) {
+            log.error("Encountered an error in processing event message", e);
+            return false;
+        }
+        return true;
+    }
+
+    private void extendVisibility() {
+        try {
+            List<Message> messages = new ArrayList<>(this.inFlightMessages.values());
+            for (int offset = 0; offset < messages.size(); offset += MAX_NUMBER_OF_MESSAGES) {
+                List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>();
+                for (int i = offset; i < Math.min(offset + MAX_NUMBER_OF_MESSAGES, messages.size()); i++) {
+                    entries.add(new ChangeMessageVisibilityBatchRequestEntry(String.valueOf(i), messages.get(i).getReceiptHandle())
+                        .withVisibilityTimeout(this.visibilityTimeout));
+                }
+                ChangeMessageVisibilityBatchResult result = this.sqs.changeMessageVisibilityBatch(new ChangeMessageVisibilityBatchRequest(this.queueUrl, entries));
+                for (BatchResultErrorEntry failed : result.getFailed()) {
+                    // may be deleted in the meantime
+                    log.debug("Failed to extend visibility timeout: {}", failed);
+                }
+            }
+        } catch (Exception e) {
+            // Do not let the exception cancel following heartbeats
+            log.warn("Encountered an error in extending visibility timeout", e);
+        }
+    }
+
+    private void deleteMessages(List<Message> messages) {
+        try {
+            if (messages.isEmpty()) {
+                return;
+            }
+            List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+            for (int i = 0; i < messages.size(); i++) {
+                entries.add(new DeleteMessageBatchRequestEntry(String.valueOf(i), messages.get(i).getReceiptHandle()));
+            }
+            DeleteMessageBatchResult result = this.sqs.deleteMessageBatch(new DeleteMessageBatchRequest(this.queueUrl, entries));
+            for (BatchResultErrorEntry failed : result.getFailed()) {
+                log.warn("Failed to delete message: {}", failed);
+            }
+        } catch (Exception e) {
+            // Messages will be redelivered and handled again
+            log.error("Encountered an error in deleting messages", e);
+        }
+    }
+
+    // Finished messages are deleted when a batch is full, when no other message is being handled,
+    // or by the periodic flush, so that they do not wait for the slowest message of their receive
+    private void complete(Message msg, boolean deletable) {
+        List<Message> deletables = null;
+        synchronized (this.pendingDeletions) {
+            this.inFlightMessages.remove(msg.getReceiptHandle());
+            if (deletable) {
+                this.pendingDeletions.add(msg);
+            }
+            if (this.pendingDeletions.size() >= MAX_NUMBER_OF_MESSAGES || this.inFlightMessages.isEmpty()) {
+                deletables = this.takePendingDeletions();
+            }
+        }
+        if (deletables != null) {
+            this.deleteMessages(deletables);
+        }
+    }
+
+    private List<Message> takePendingDeletions() {
+        List<Message> deletables = new ArrayList<>(this.pendingDeletions);
+        this.pendingDeletions.clear();
+        return deletables;
+    }
+
+    private void flushDeletions() {
+        List<Message> deletables;
+        synchronized (this.pendingDeletions) {
+            deletables = this.takePendingDeletions();
+        }
+        this.deleteMessages(deletables);
+    }
+
+    // Blocks until at least one worker slot is free, then takes as many free slots as a receive can use
+    private int acquireWorkerSlots() throws InterruptedException {
+        this.workerSlots.acquire();
+        int acquired = 1;
+        while (acquired < MAX_NUMBER_OF_MESSAGES && this.workerSlots.tryAcquire()) {
+            acquired++;
+        }
+        return acquired;
+    }
+
+    private void receiveAndDispatch() throws InterruptedException {
+        final int slots = this.acquireWorkerSlots();
+        final List<Message> messages;
+        try {
+            final ReceiveMessageRequest req = new ReceiveMessageRequest(this.queueUrl);
+            req.setVisibilityTimeout(this.visibilityTimeout);
+            req.setMaxNumberOfMessages(slots);
+            req.setWaitTimeSeconds(20);
+            final ReceiveMessageResult msgResult = this.sqs.receiveMessage(req);
+            messages = msgResult.getMessages();
+        } catch (RuntimeException e) {
+            this.workerSlots.release(slots);
+            throw e;
+        }
+        this.workerSlots.release(Math.max(slots - messages.size(), 0));
 
-        final ReceiveMessageResult msgResult = this.sqs.receiveMessage(req);
         final Instant receivedTime = Instant.now(clock);
-        for (Message msg: msgResult.getMessages()) {
-            try {
-                this.handleMessage(receivedTime, msg);
-            } catch (EventHandler.CatchAndReleaseException e) {
-                // catch and release
-                continue;
-            } catch (Exception e) {
-                log.error("Encountered an error in processing event message", e);
-                continue;
+        for (Message msg: messages) {
+            this.inFlightMessages.put(msg.getReceiptHandle(), msg);
+        }
+        for (Message msg: messages) {
+            Runnable task = () -> {
+                boolean deletable = false;
+                try {
+                    deletable = this.dispatchMessage(receivedTime, msg);
+                } finally {
+                    this.workerSlots.release();
+                    this.complete(msg, deletable);
+                }
+            };
+            if (this.workerExecutor == null) {
+                task.run();
+            } else {
+                this.workerExecutor.execute(task);
             }
-            DeleteMessageRequest delReq = new DeleteMessageRequest(this.queueUrl, msg.getReceiptHandle());
-            this.sqs.deleteMessage(delReq);
         }
     }
 
     @Override
     public boolean handleStep() {
-        receiveAndDispatch();
+        try {
+            receiveAndDispatch();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
         return true;
     }
 
     @Override
     public void shutdown() {
         // FIXME: shutdown SQS client?
+        if (this.workerExecutor != null) {
+            // Let in-flight messages finish; unfinished ones will be redelivered anyway
+            this.workerExecutor.shutdown();
+            try {
+                while (!this.workerExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    log.info("waiting for workerExecutor shutdown...");
+                }
+            } catch (InterruptedException ex) {
+                log.error("workerExecutor shutdown interrupted: {}", ex.getMessage());
+            }
+        }
+        this.heartbeatExecutor.shutdownNow();
+        this.flushDeletions();
     }
 }
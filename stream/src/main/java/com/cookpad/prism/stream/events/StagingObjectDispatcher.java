@@ -1,7 +1,9 @@
 package com.cookpad.prism.stream.events;
 
+import java.time.Duration;
 import java.util.List;
 
+import com.cookpad.prism.ExpiringCache;
 import com.cookpad.prism.stream.StagingObjectAttributes;
 import com.cookpad.prism.stream.StagingObjectAttributes.NotAnStagingObjectException;
 import com.cookpad.prism.stream.events.StagingObjectHandler.UnknownObjectException;
@@ -29,6 +31,20 @@ public class StagingObjectDispatcher implements EventHandler {
     final private PrismUnknownStagingObjectMapper unknownStagingObjectMapper;
     private final PacketStreamMapper packetStreamMapper;
     private final DateRange ignoreDateRange;
+    // (bucket name, stream prefix) -> streams
+    private final ExpiringCache<List<String>, List<OneToOne<OneToMany<PacketStream, StreamColumn>, PrismTable>>> streamCache;
+
+    public StagingObjectDispatcher(StagingObjectHandler handler, PrismStagingObjectMapper stagingObjectMapper, PrismUnknownStagingObjectMapper unknownStagingObjectMapper, PacketStreamMapper packetStreamMapper, DateRange ignoreDateRange) {
+        this(handler, stagingObjectMapper, unknownStagingObjectMapper, packetStreamMapper, ignoreDateRange, new ExpiringCache<>(Duration.ZERO));
+    }
+
+    private List<OneToOne<OneToMany<PacketStream, StreamColumn>, PrismTable>> findStreams(String bucketName, String streamPrefix) {
+        return this.streamCache.get(List.of(bucketName, streamPrefix), (key) -> {
+            var streams = this.packetStreamMapper.findByDestBucketAndPrefix(bucketName, streamPrefix);
+            // Do not remember missing streams so that new streams are found immediately
+            return streams.isEmpty() ? null : streams;
+        });
+    }
 
     @Transactional(propagation=Propagation.NESTED)
     private PrismStagingObject findOrCreateStagingObject(StagingObjectEvent event, StagingObjectAttributes attrs) {
@@ -71,8 +87,8 @@ public class StagingObjectDispatcher implements EventHandler {
         }
         log.debug("Object Attrs: {}", attrs);
 
-        List<OneToOne<OneToMany<PacketStream, StreamColumn>, PrismTable>> relation = this.packetStreamMapper.findByDestBucketAndPrefix(event.getBucketName(), attrs.getStreamPrefix());
-        if (relation.size() == 0) {
+        List<OneToOne<OneToMany<PacketStream, StreamColumn>, PrismTable>> relation = this.findStreams(event.getBucketName(), attrs.getStreamPrefix());
+        if (relation == null) {
             this.raiseNoStreamError(event);
             return;
         }
@@ -1,8 +1,13 @@
 package com.cookpad.prism.stream;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.time.Clock;
@@ -11,12 +16,17 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.hadoop.conf.Configuration;
 import com.cookpad.prism.SchemaBuilder;
 import com.cookpad.prism.objectstore.PrismObjectStore;
 import com.cookpad.prism.objectstore.PrismObjectStoreFactory;
 import com.cookpad.prism.objectstore.StagingObjectStore;
+import com.cookpad.prism.record.RecordReaderFactory;
 import com.cookpad.prism.record.RecordWriterFactory;
 import com.cookpad.prism.record.Schema.Builder.BadSchemaError;
 import com.cookpad.prism.stream.events.StagingObjectHandler.UnknownObjectException;
@@ -44,12 +54,14 @@ public class ParquetConverterTest {
     public void testHandleStagingObject() throws UnknownObjectException, IOException, BadSchemaError, URISyntaxException {
         val conf = new Configuration();
         val recordWriterFactory = new RecordWriterFactory(conf);
+        val recordReaderFactory = new RecordReaderFactory(conf);
         val stagingObjectStore = mock(StagingObjectStore.class);
         val prismSmallObjectMapper = mock(PrismSmallObjectMapper.class);
         val prismPartitionMapper = mock(PrismPartitionMapper.class);
         val prismMergeJobMapper = mock(PrismMergeJobMapper.class);
         val prismObjectStoreFactory = mock(PrismObjectStoreFactory.class);
         val schemaBuilder = new SchemaBuilder();
+        val prismConf = new PrismStreamConf();
         val clock = Clock.fixed(Instant.ofEpochSecond(1534900000), ZoneOffset.UTC);  // 2018-08-22
         val scheduleTime = LocalDateTime.ofInstant(Instant.ofEpochSecond(1534900000 + 43200), ZoneOffset.UTC);
 
@@ -86,10 +98,11 @@ public class ParquetConverterTest {
             val smallObject22 = new PrismSmallObject(322, 100, 22, true, 1000, uploadStartTime);
             val smallObject23 = new PrismSmallObject(323, 100, 23, false, 1000, uploadStartTime);
 
-            when(prismSmallObjectMapper.findOrCreateByParams(eq(100L), eq(22L), eq(uploadStartTime), anyLong())).thenReturn(smallObject22);
-            when(prismSmallObjectMapper.findOrCreateByParams(eq(100L), eq(23L), eq(uploadStartTime), anyLong())).thenReturn(smallObject23);
-            when(prismPartitionMapper.createPartitionIfNotExists(200, dt22)).thenReturn(new PrismPartition(22, 200, dt22, -1, 0, null, false));
-            when(prismPartitionMapper.createPartitionIfNotExists(200, dt23)).thenReturn(new PrismPartition(23, 200, dt23, -1, 0, null, false));
+            when(prismSmallObjectMapper.findOrCreateAll(eq(100L), any())).thenReturn(List.of(smallObject22, smallObject23));
+            when(prismPartitionMapper.createPartitionsIfNotExist(200, List.of(dt22, dt23))).thenReturn(List.of(
+                new PrismPartition(22, 200, dt22, -1, 0, null, false),
+                new PrismPartition(23, 200, dt23, -1, 0, null, false)
+            ));
 
             val cap22 = ArgumentCaptor.forClass(File.class);
             val path22 = Files.createTempFile("prism-test-", ".parquet");
@@ -105,20 +118,86 @@ public class ParquetConverterTest {
                 return "dummy_key23";
             });
 
-            val parquetConverter = new ParquetConverter(recordWriterFactory, stagingObjectStore, prismSmallObjectMapper, prismPartitionMapper, prismMergeJobMapper, prismObjectStoreFactory, schemaBuilder, clock);
-            parquetConverter.handleStagingObject(stagingObject, staingObjectAttrs, packetStreamWithColumns, prismTable);
-
-            verify(prismSmallObjectMapper).findOrCreateByParams(eq(100L), eq(22L), eq(uploadStartTime), anyLong());
-            verify(prismSmallObjectMapper).findOrCreateByParams(eq(100L), eq(23L), eq(uploadStartTime), anyLong());
+            // Date files are uploaded on other threads
+            val uploadExecutor = Executors.newFixedThreadPool(2);
+            try {
+                val parquetConverter = new ParquetConverter(recordWriterFactory, recordReaderFactory, stagingObjectStore, prismSmallObjectMapper, prismPartitionMapper, prismMergeJobMapper, prismObjectStoreFactory, schemaBuilder, clock, prismConf, null, uploadExecutor);
+                parquetConverter.handleStagingObject(stagingObject, staingObjectAttrs, packetStreamWithColumns, prismTable);
+            } finally {
+                uploadExecutor.shutdown();
+            }
+
+            verify(prismPartitionMapper, times(1)).createPartitionsIfNotExist(200, List.of(dt22, dt23));
+            // All small objects are registered at once before any upload
+            @SuppressWarnings("unchecked")
+            ArgumentCaptor<List<PrismSmallObject>> newSmallObjects = ArgumentCaptor.forClass(List.class);
+            verify(prismSmallObjectMapper, times(1)).findOrCreateAll(eq(100L), newSmallObjects.capture());
+            assertEquals(2, newSmallObjects.getValue().size());
+            assertEquals(22L, newSmallObjects.getValue().get(0).getPartitionId());
+            assertEquals(23L, newSmallObjects.getValue().get(1).getPartitionId());
+            assertEquals(path22.toFile().length(), newSmallObjects.getValue().get(0).getContentLength());
+            assertEquals(uploadStartTime, newSmallObjects.getValue().get(1).getUploadStartTime());
 
             verify(objectStore).putDelayedObjectFile(eq(dt22), eq(100L), any());
             verify(objectStore).putLiveObjectFile(eq(dt23), eq(100L), any());
 
-            verify(prismMergeJobMapper).enqueue(eq(22L), eq(scheduleTime));
-            verify(prismMergeJobMapper).enqueue(eq(23L), eq(scheduleTime));
+            verify(prismMergeJobMapper, times(1)).enqueueAll(eq(List.of(22L, 23L)), eq(scheduleTime), eq(uploadStartTime));
         }
     }
 
+    @Test
+    public void testNothingIsStoredIfReadingFails() throws IOException, BadSchemaError {
+        val conf = new Configuration();
+        val stagingObjectStore = mock(StagingObjectStore.class);
+        val prismSmallObjectMapper = mock(PrismSmallObjectMapper.class);
+        val prismPartitionMapper = mock(PrismPartitionMapper.class);
+        val prismMergeJobMapper = mock(PrismMergeJobMapper.class);
+        val prismObjectStoreFactory = mock(PrismObjectStoreFactory.class);
+        val clock = Clock.fixed(Instant.ofEpochSecond(1534900000), ZoneOffset.UTC);  // 2018-08-22
+
+        val prismTable = new PrismTable(200, null, null, "logical_example", "logical_dummy", LocalDateTime.now(), 43200);
+        val objectStore = mock(PrismObjectStore.class);
+        when(prismObjectStoreFactory.create(prismTable)).thenReturn(objectStore);
+        val stagingObject = new PrismStagingObject(100, "dummy", "dummy.gz", LocalDateTime.now(), LocalDateTime.now());
+
+        // The connection is reset after many records have been read
+        val jsonl = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            jsonl.append(String.format("{\"utc_event_time\": \"2018-08-%02dT12:15:00+00:00\", \"user_id\": %d, \"action\": \"alpha\"}\n", 21 + i % 3, i));
+        }
+        val gzipped = new ByteArrayOutputStream();
+        try (val out = new GZIPOutputStream(gzipped)) {
+            out.write(jsonl.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        val truncated = Arrays.copyOf(gzipped.toByteArray(), gzipped.size() / 2);
+        val reset = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset");
+            }
+        };
+        when(stagingObjectStore.getStagingObject(stagingObject)).thenReturn(new SequenceInputStream(new ByteArrayInputStream(truncated), reset));
+
+        val columns = new ArrayList<StreamColumn>();
+        columns.add(new StreamColumn(1, "utc_event_time", "time", "timestamp", null, "+00:00", "+09:00", Instant.now(), true));
+        columns.add(new StreamColumn(2, "user_id", null, "bigint", null, null, null, Instant.now(), false));
+        columns.add(new StreamColumn(3, "action", null, "string", 100, null, null, Instant.now(), false));
+        @SuppressWarnings("unchecked")
+        OneToMany<PacketStream, StreamColumn> packetStreamWithColumns = mock(OneToMany.class);
+        when(packetStreamWithColumns.getMany()).thenReturn(columns);
+        val attrs = new StagingObjectAttributes("dummy", "example.dummy", LocalDate.of(2018, 8, 23), "dummy.gz");
+
+        val uploadExecutor = Executors.newFixedThreadPool(2);
+        try {
+            val parquetConverter = new ParquetConverter(new RecordWriterFactory(conf), new RecordReaderFactory(conf), stagingObjectStore, prismSmallObjectMapper, prismPartitionMapper, prismMergeJobMapper, prismObjectStoreFactory, new SchemaBuilder(), clock, new PrismStreamConf(), null, uploadExecutor);
+            assertThrows(RuntimeException.class, () -> parquetConverter.handleStagingObject(stagingObject, attrs, packetStreamWithColumns, prismTable));
+        } finally {
+            uploadExecutor.shutdown();
+        }
+
+        verifyNoMoreInteractions(prismPartitionMapper, prismSmallObjectMapper, prismMergeJobMapper, objectStore);
+    }
+
     @Test
     public void testIsAcceptableDelay() throws Exception {
         var now = LocalDateTime.of(2020,6,20,0,0);
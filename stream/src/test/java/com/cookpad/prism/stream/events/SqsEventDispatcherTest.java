@@ -3,17 +3,28 @@ package com.cookpad.prism.stream.events;
 import com.cookpad.prism.stream.events.EventHandler.CatchAndReleaseException;
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 import java.time.Clock;
 import java.time.Instant;
 import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
 import com.amazonaws.services.sqs.model.Message;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
 import com.amazonaws.services.sqs.model.ReceiveMessageResult;
 
+import org.mockito.ArgumentCaptor;
+
 import lombok.val;
 
 public class SqsEventDispatcherTest {
@@ -80,4 +91,87 @@ public class SqsEventDispatcherTest {
             )
         );
     }
+
+    @Test
+    void testHandleStepConcurrently() throws CatchAndReleaseException {
+        val now = Instant.now();
+        val mockedClock = mock(Clock.class);
+        when(mockedClock.instant()).thenReturn(now);
+        val mockedSqs = mock(AmazonSQS.class);
+        val messageBody = "{\"Records\":[{\"eventVersion\":\"2.0\",\"eventTime\":\"2018-06-27T11:24:59.461Z\",\"eventSource\":\"aws:s3\",\"awsRegion\":\"ap-northeast-1\",\"eventName\":\"ObjectCreated:Put\",\"s3\":{\"bucket\":{\"name\":\"staging-bucket\"},\"object\":{\"key\":\"69ab.logs.pv_log/2018/06/27/20180627_1124_0_4ee44954-228b-4f08-a832-360c625f4e92.gz\"}}}]}";
+        val result = new ReceiveMessageResult()
+            .withMessages(
+                new Message()
+                    .withReceiptHandle("DUMMY_RECEIPT_HANDLE_1")
+                    .withBody(messageBody),
+                new Message()
+                    .withReceiptHandle("DUMMY_RECEIPT_HANDLE_2")
+                    .withBody(messageBody)
+            )
+        ;
+        val reqCaptor = ArgumentCaptor.forClass(ReceiveMessageRequest.class);
+        when(mockedSqs.receiveMessage(reqCaptor.capture())).thenReturn(result);
+        val delReqCaptor = ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
+        when(mockedSqs.deleteMessageBatch(delReqCaptor.capture())).thenReturn(new DeleteMessageBatchResult());
+
+        val mockedHandler = mock(EventHandler.class);
+        doNothing().when(mockedHandler).handleEvent(any());
+
+        val dispatcher = new SqsEventDispatcher(mockedSqs, "dummy", mockedHandler, mockedClock, Executors.newFixedThreadPool(4), 4, 300);
+        dispatcher.handleStep();
+        // wait for workers
+        dispatcher.shutdown();
+
+        assertEquals(4, reqCaptor.getValue().getMaxNumberOfMessages());
+        verify(mockedHandler, times(2)).handleEvent(any());
+        assertEquals(300, reqCaptor.getValue().getVisibilityTimeout());
+        // deleted at once
+        verify(mockedSqs).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+        val deletedHandles = delReqCaptor.getValue().getEntries().stream()
+            .map(DeleteMessageBatchRequestEntry::getReceiptHandle)
+            .collect(Collectors.toSet());
+        assertEquals(Set.of("DUMMY_RECEIPT_HANDLE_1", "DUMMY_RECEIPT_HANDLE_2"), deletedHandles);
+    }
+
+    @Test
+    void testDeleteWithoutWaitingForSlowMessage() throws Exception {
+        val mockedSqs = mock(AmazonSQS.class);
+        val bodyFormat = "{\"Records\":[{\"eventVersion\":\"2.0\",\"eventTime\":\"2018-06-27T11:24:59.461Z\",\"eventSource\":\"aws:s3\",\"awsRegion\":\"ap-northeast-1\",\"eventName\":\"ObjectCreated:Put\",\"s3\":{\"bucket\":{\"name\":\"staging-bucket\"},\"object\":{\"key\":\"%s\"}}}]}";
+        val result = new ReceiveMessageResult()
+            .withMessages(
+                new Message()
+                    .withReceiptHandle("FAST")
+                    .withBody(String.format(bodyFormat, "fast.gz")),
+                new Message()
+                    .withReceiptHandle("SLOW")
+                    .withBody(String.format(bodyFormat, "slow.gz"))
+            )
+        ;
+        when(mockedSqs.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(result);
+        val delReqCaptor = ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
+        when(mockedSqs.deleteMessageBatch(delReqCaptor.capture())).thenReturn(new DeleteMessageBatchResult());
+
+        val slowRelease = new CountDownLatch(1);
+        val mockedHandler = mock(EventHandler.class);
+        doAnswer((invocation) -> {
+            StagingObjectEvent event = invocation.getArgument(0);
+            if (event.getObjectKey().equals("slow.gz")) {
+                slowRelease.await();
+            }
+            return null;
+        }).when(mockedHandler).handleEvent(any());
+
+        val dispatcher = new SqsEventDispatcher(mockedSqs, "dummy", mockedHandler, Clock.systemUTC(), Executors.newFixedThreadPool(2), 2, 300);
+        dispatcher.handleStep();
+        try {
+            // deleted by the periodic flush while the slow one is still running
+            verify(mockedSqs, timeout(5000)).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+            assertEquals(List.of("FAST"), delReqCaptor.getValue().getEntries().stream().map(DeleteMessageBatchRequestEntry::getReceiptHandle).collect(Collectors.toList()));
+        } finally {
+            slowRelease.countDown();
+            dispatcher.shutdown();
+        }
+        verify(mockedSqs, times(2)).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+        assertEquals(List.of("SLOW"), delReqCaptor.getValue().getEntries().stream().map(DeleteMessageBatchRequestEntry::getReceiptHandle).collect(Collectors.toList()));
+    }
 }